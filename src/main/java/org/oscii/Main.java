@@ -8,12 +8,18 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.oscii.api.LexServlet;
+import org.oscii.api.MemoryProtocol;
+import org.oscii.api.MemoryServlet;
 import org.oscii.api.LexiconProtocol;
 import org.oscii.concordance.AlignedCorpus;
 import org.oscii.concordance.IndexedAlignedCorpus;
+import org.oscii.concordance.MappedAlignedCorpus;
+import org.oscii.concordance.PartitionedAlignedCorpus;
+import org.oscii.concordance.SuffixArrayAlignedCorpus;
 import org.oscii.lex.Lexicon;
 import org.oscii.lex.Ranker;
 import org.oscii.morph.MorphologyManager;
+import org.oscii.neural.EmbeddingContainer;
 import org.oscii.neural.Word2VecManager;
 import org.oscii.panlex.PanLexDir;
 import org.oscii.panlex.PanLexJSONParser;
@@ -28,14 +34,28 @@ public class Main {
 
     private final static Logger log = LogManager.getLogger(Main.class);
     private static final Integer DEFAULT_API_PORT = 8090;
-    private static final Integer DEFAULT_MAX_SENTENCE_PAIRS = 100;
+    private static final Integer DEFAULT_MAX_SENTENCE_PAIRS = 0;
     private static final String DEFAULT_LANGUAGES = "en,es,de,fr";
     private static final String DEFAULT_PATTERN = "(?U)\\p{Lower}*";
 
     public static void main(String[] args) throws Exception {
         final OptionSet options = parse(args);
         final Lexicon lexicon = new Lexicon();
-        final AlignedCorpus corpus = new IndexedAlignedCorpus();
+        final AlignedCorpus background;
+        if (options.has("corpusfile") && options.has("corpus")) {
+            log.fatal("A corpus index file (--corpusfile) already holds a corpus; do not also set --corpus.");
+            System.exit(-2);
+        }
+        if (options.has("corpusfile")) {
+            background = MappedAlignedCorpus.map((File) options.valueOf("corpusfile"));
+        } else if ("words".equals(options.valueOf("corpusindex"))) {
+            background = new IndexedAlignedCorpus();
+        } else {
+            background = new SuffixArrayAlignedCorpus();
+        }
+        final PartitionedAlignedCorpus corpus = new PartitionedAlignedCorpus(background);
+        corpus.setCandidateBudget((Integer) options.valueOf("candidates"));
+        corpus.setShortlistSize((Integer) options.valueOf("shortlist"));
         final List<String> languages = Arrays.asList(((String) options.valueOf("languages")).split(","));
 
         // Parse PanLex
@@ -54,20 +74,22 @@ public class Main {
         if (options.has("corpus")) {
             final String corpusPath = (String) options.valueOf("corpus");
             final int max = (Integer) options.valueOf("max");
-            for (String source : languages) {
-                for (String target : languages) {
-                    if (source.equals(target)) {
-                        continue;
-                    }
-                    if (corpus.exists(corpusPath, source, target)) {
-                        corpus.read(corpusPath, source, target, max);
-                    } else {
-                        log.warn("Could not find corpus for " + source + "-" + target + " in " + corpusPath);
-                    }
-                }
-            }
+            corpus.readAll(corpusPath, languages, max);
             corpus.tally();
             lexicon.addFrequencies(corpus);
+        } else if (options.has("corpusfile")) {
+            lexicon.addFrequencies(corpus);
+        }
+
+        // Index translation memories
+        if (options.has("memories")) {
+            for (String memory : ((String) options.valueOf("memories")).split(",")) {
+                String[] ids = memory.split(":", 3);
+                if (ids.length != 3) {
+                    throw new IllegalArgumentException("Expected systemId:memoryId:path, not " + memory);
+                }
+                corpus.readMemory(ids[0], Integer.parseInt(ids[1]), ids[2], languages, 0);
+            }
         }
 
         if (options.has("write")) {
@@ -94,11 +116,15 @@ public class Main {
                         files.length, langs.length);
                 System.exit(-1);
             }
-            embeddings = new Word2VecManager();
+            EmbeddingContainer.Storage storage = EmbeddingContainer.Storage.valueOf(
+                    ((String) options.valueOf("embeddingsstorage")).toUpperCase());
+            long budgetMB = (Long) options.valueOf("embeddingsbudget");
+            embeddings = budgetMB > 0 ? new Word2VecManager(budgetMB << 20) : new Word2VecManager();
 
             for (int i = 0; i < files.length; ++i) {
-                embeddings.add(langs[i], new File(files[i]));
+                embeddings.add(langs[i], new File(files[i]), null, storage);
             }
+            embeddings.setCacheSentences(true);
         }
 
         MorphologyManager morphology = null;
@@ -127,15 +153,20 @@ public class Main {
 
         // Serve lexicon (http API)
         Server server = null;
-        if (options.has("api")) {
-            final int port = (Integer) options.valueOf("port");
-            server = new Server(port);
-            final ServletHandler handler = new ServletHandler();
-            final ServletHolder holder = new ServletHolder(new LexServlet(protocol));
-            handler.addServletWithMapping(holder, "/translate/lexicon");
-            server.setHandler(handler);
-            server.start();
-            server.join();
+        try {
+            if (options.has("api")) {
+                final int port = (Integer) options.valueOf("port");
+                server = new Server(port);
+                final ServletHandler handler = new ServletHandler();
+                final ServletHolder holder = new ServletHolder(new LexServlet(protocol));
+                handler.addServletWithMapping(holder, "/translate/lexicon");
+                handler.addServletWithMapping(new ServletHolder(new MemoryServlet(new MemoryProtocol(corpus))), "/translate/memory");
+                server.setHandler(handler);
+                server.start();
+                server.join();
+            }
+        } finally {
+            corpus.close();
         }
     }
 
@@ -160,7 +191,12 @@ public class Main {
 
         // Concordance
         parser.accepts("corpus", "path to corpus (no suffixes)").withRequiredArg();
-        parser.accepts("max", "maximum number of sentence pairs").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_MAX_SENTENCE_PAIRS);
+        parser.accepts("max", "maximum number of sentence pairs per language pair, 0 for all").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_MAX_SENTENCE_PAIRS);
+        parser.accepts("corpusfile", "corpus index file built by MappedAlignedCorpus, instead of a corpus").withRequiredArg().ofType(File.class);
+        parser.accepts("candidates", "maximum number of examples ranked by embeddings, sampled from all; 0 for all").withRequiredArg().ofType(Integer.class).defaultsTo(AlignedCorpus.DEFAULT_CANDIDATE_BUDGET);
+        parser.accepts("shortlist", "number of examples ranked by embeddings, chosen by word overlap with the context; 0 for all").withRequiredArg().ofType(Integer.class).defaultsTo(AlignedCorpus.DEFAULT_SHORTLIST_SIZE);
+        parser.accepts("memories", "comma-separated translation memories as systemId:memoryId:path, each path as for corpus").withRequiredArg();
+        parser.accepts("corpusindex", "corpus index: suffix, or words for the deprecated word index").withRequiredArg().defaultsTo("suffix");
 
         // Ranker
         parser.accepts("rank", "path to CSV file with rankings").withRequiredArg().ofType(File.class);
@@ -168,6 +204,8 @@ public class Main {
         // Word2Vec
         parser.accepts("embeddings", "comma-separated list of binary Word2Vec model files").withRequiredArg().describedAs("FileList");
         parser.accepts("embeddingslangs", "comma-separated list of languages for Word2Vec models").withRequiredArg().describedAs("LangList");
+        parser.accepts("embeddingsstorage", "storage for Word2Vec vectors: float, fp16, int8 or pq").withRequiredArg().defaultsTo("float");
+        parser.accepts("embeddingsbudget", "MB of Word2Vec models kept in memory; 0 for no limit").withRequiredArg().ofType(Long.class).defaultsTo(0L);
 
         parser.accepts("morph", "comma-separated list of JSON neural morphology files").withRequiredArg().describedAs("MorphList");
         parser.accepts("morphlangs", "comma-separated list of of languages for morphology models").withRequiredArg().describedAs("LangList");
@@ -15,12 +15,17 @@ import org.oscii.lex.Ranker;
 import org.oscii.lex.Translation;
 import org.oscii.morph.MorphologyManager;
 import org.oscii.neural.FloatVector;
+import org.oscii.neural.Neighbor;
 import org.oscii.neural.Word2VecManager;
 import org.oscii.neural.Word2VecManager.MalformedQueryException;
+import org.oscii.neural.Word2VecManager.UnknownWordException;
 import org.oscii.neural.Word2VecManager.UnsupportedLanguageException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.stream.Collectors.toList;
 
@@ -59,6 +64,9 @@ public class LexiconProtocol {
         if (request.synonym) addSynonyms(request, response);
         if (request.embedding) addEmbedding(request, response);
         if (request.distance) addDistance(request, response);
+        if (request.neighbors) addNeighbors(request, response);
+        if (request.analogy) addAnalogy(request, response);
+        if (request.stats) addStats(response);
         return response;
     }
 
@@ -111,6 +119,10 @@ public class LexiconProtocol {
         long endTime = System.nanoTime();
         logger.debug("TIMING examples: {}", (endTime - startTime) / 1e9);
         if (bHasEmbeddings) {
+            startTime = endTime;
+            results = corpus.shortlist(request.context, request.source, results);
+            endTime = System.nanoTime();
+            logger.debug("TIMING shortlist: {} ({})", (endTime - startTime) / 1e9, results.size());
             startTime = endTime;
             boolean bSuccess = embeddings.rankConcordances(request.source, request.context, results, request.memory);
             endTime = System.nanoTime();
@@ -215,20 +227,106 @@ public class LexiconProtocol {
      * response.  The field 'query' either takes both terms separated
      * by '|||', or fields 'query' and 'context' are used.
      * <p>
+     * Several candidates are scored against the first term in one call when 'query'
+     * has more than two terms, or when 'context' has several terms separated by '|||'.
+     * Their distances are listed in order, and 'distance' is that of the first one.
+     * <p>
      * Examples:
      * http://localhost:8090/translate/lexicon?query=explain|||tell&distance=true
      * http://localhost:8090/translate/lexicon?query=explain&context=tell&distance=true
      * =>
      * {...,"distance":0.347985021280413}
+     * http://localhost:8090/translate/lexicon?query=explain|||tell|||say&distance=true
+     * http://localhost:8090/translate/lexicon?query=explain&context=tell|||say&distance=true
+     * =>
+     * {...,"distance":0.347985021280413,"distances":[0.347985021280413,0.2914771139621735]}
      */
     private void addDistance(Request request, Response response) {
+        List<String> terms = splitTerms(request.query);
+        List<String> candidates = null;
+        if (request.context.contains("|||")) {
+            candidates = splitTerms(request.context);
+        } else if (request.context.isEmpty() && terms.size() > 2) {
+            candidates = terms.subList(1, terms.size());
+        }
         try {
-            response.distance = embeddings.getSimilarity(request.source, request.query, request.context);
+            if (candidates == null) {
+                response.distance = embeddings.getSimilarity(request.source, request.query, request.context);
+            } else if (!candidates.isEmpty()) {
+                String query = terms.isEmpty() ? "" : terms.get(0);
+                response.distances = embeddings.getSimilarities(request.source, query, candidates);
+                response.distance = response.distances[0];
+            }
         } catch (UnsupportedLanguageException | MalformedQueryException e) {
             response.error = e.getMessage();
         }
     }
 
+    private static List<String> splitTerms(String terms) {
+        return Arrays.stream(terms.split("\\|\\|\\|"))
+                .map(String::trim).filter(t -> !t.isEmpty()).collect(toList());
+    }
+
+    /**
+     * Adds the words nearest to the query in embedding space, with their cosine
+     * similarities. A '|||'-delimited query is answered for each of its parts, and
+     * a part none of whose words are in the embeddings is marked as not known.
+     * <p>
+     * Examples:
+     * http://localhost:8090/translate/lexicon?query=explain&neighbors=true&maxCount=5
+     * http://localhost:8090/translate/lexicon?query=explain|||tell&neighbors=true
+     * =>
+     * {...,"neighbors":[{"query":"explain","known":true,"neighbors":[{"match":"clarify","distance":0.71},...]},...],...}
+     */
+    private void addNeighbors(Request request, Response response) {
+        List<String> queries = splitTerms(request.query);
+        try {
+            List<List<Neighbor>> results = embeddings.neighbors(request.source, queries, request.maxCount);
+            for (int i = 0; i < queries.size(); i++) {
+                List<Neighbor> found = results.get(i);
+                List<ResponseMatch> matches = found == null ? new ArrayList<>() : found.stream()
+                        .map(n -> new ResponseMatch(n.word, n.similarity)).collect(toList());
+                response.neighbors.add(new ResponseNeighbors(queries.get(i), found != null, matches));
+            }
+        } catch (UnsupportedLanguageException e) {
+            response.error = e.getMessage();
+        }
+    }
+
+    /**
+     * Adds the words nearest to a - b + c for a query "a|||b|||c", excluding a, b and c,
+     * with their cosine similarities.
+     * <p>
+     * Example:
+     * http://localhost:8090/translate/lexicon?query=king|||man|||woman&analogy=true&maxCount=5
+     * =>
+     * {...,"analogy":[{"match":"queen","distance":0.71},...],...}
+     */
+    private void addAnalogy(Request request, Response response) {
+        List<String> terms = splitTerms(request.query);
+        try {
+            if (terms.size() != 3) throw new MalformedQueryException(request.query);
+            response.analogy = embeddings.analogy(request.source, terms.get(0), terms.get(1), terms.get(2),
+                    request.maxCount).stream().map(n -> new ResponseMatch(n.word, n.similarity)).collect(toList());
+        } catch (UnsupportedLanguageException | UnknownWordException | MalformedQueryException e) {
+            response.error = e.getMessage();
+        }
+    }
+
+    /**
+     * Adds service statistics, such as embedding model loads and evictions.
+     * <p>
+     * Example:
+     * http://localhost:8090/translate/lexicon?query=&stats=true
+     * =>
+     * {...,"stats":{"embeddingModels":2,"embeddingModelsResident":1,...},...}
+     */
+    private void addStats(Response response) {
+        response.stats = new LinkedHashMap<>();
+        if (embeddings != null) {
+            response.stats.putAll(embeddings.statistics());
+        }
+    }
 
     private List<String> listSynonyms(Meaning r) {
         return r.synonyms.stream().map(e -> e.text).collect(toList());
@@ -256,6 +354,9 @@ public class LexiconProtocol {
         public boolean synonym = false;
         public boolean embedding = false;
         public boolean distance = false;
+        public boolean neighbors = false;
+        public boolean analogy = false;
+        public boolean stats = false;
         public double minFrequency = 1e-4;
         public int maxCount = 10;
         public int memory = 0;
@@ -269,6 +370,10 @@ public class LexiconProtocol {
         public List<ResponseSynonymSet> synonyms = new ArrayList<>();
         public float[] embedding;
         public double distance = 0.0;
+        public double[] distances;
+        public List<ResponseNeighbors> neighbors = new ArrayList<>();
+        public List<ResponseMatch> analogy;
+        public Map<String, Number> stats;
         public String error;
 
         public static Response error(String message) {
@@ -416,6 +521,21 @@ public class LexiconProtocol {
         }
     }
 
+    /**
+     * Nearest neighbors of one query; known is false if none of its words are embedded.
+     */
+    static class ResponseNeighbors extends Jsonable {
+        String query;
+        boolean known;
+        List<ResponseMatch> neighbors;
+
+        public ResponseNeighbors(String query, boolean known, List<ResponseMatch> neighbors) {
+            this.query = query;
+            this.known = known;
+            this.neighbors = neighbors;
+        }
+    }
+
     /*
      * A span of a sequence
      */
@@ -0,0 +1,102 @@
+package org.oscii.api;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.oscii.concordance.AlignedSentence;
+import org.oscii.concordance.PartitionedAlignedCorpus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Transmission protocol for appending sentence pairs to translation memories, which are
+ * searched for examples as soon as a response is sent.
+ */
+public class MemoryProtocol {
+    private final static Logger logger = LogManager.getLogger(MemoryProtocol.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final PartitionedAlignedCorpus corpus;
+
+    public MemoryProtocol(PartitionedAlignedCorpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /*
+     * Append all segments of a request, or none if any is invalid.
+     */
+    public Response respond(Request request) {
+        if (isBlank(request.source) || isBlank(request.target) || request.segments == null) {
+            return Response.error("Invalid request");
+        }
+        if (request.memory <= 0) {
+            return Response.error("Memory ids must be positive");
+        }
+        List<AlignedSentence> pairs = new ArrayList<>(request.segments.size());
+        for (Segment segment : request.segments) {
+            if (segment == null || isBlank(segment.source) || isBlank(segment.target)) {
+                return Response.error("Invalid segment");
+            }
+            String[] source = WHITESPACE.split(segment.source.trim());
+            String[] target = WHITESPACE.split(segment.target.trim());
+            String alignment = segment.alignment == null ? "" : segment.alignment;
+            try {
+                pairs.add(AlignedSentence.parse(source, target, alignment, request.source, request.target).get(0));
+            } catch (NumberFormatException e) {
+                return Response.error(e.getMessage());
+            }
+        }
+        corpus.append(request.systemId, request.memory, pairs);
+        logger.debug("Appended {} segments to memory {} of system '{}'", pairs.size(), request.memory, request.systemId);
+        Response response = new Response();
+        response.appended = pairs.size();
+        return response;
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+
+    /* API classes to define JSON serialization */
+
+    public static class Request {
+        public String systemId = "";
+        public int memory = 0;
+        public String source = "";
+        public String target = "";
+        public List<Segment> segments = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            return new Gson().toJson(this);
+        }
+    }
+
+    /**
+     * A tokenized sentence pair with Moses-format alignment links.
+     */
+    public static class Segment {
+        public String source;
+        public String target;
+        public String alignment = "";
+    }
+
+    public static class Response {
+        public int appended = 0;
+        public String error;
+
+        public static Response error(String message) {
+            Response response = new Response();
+            response.error = message;
+            return response;
+        }
+
+        @Override
+        public String toString() {
+            return new Gson().toJson(this);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.oscii.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serve appends to translation memories, posted as JSON
+ */
+public class MemoryServlet extends HttpServlet {
+    private static final long serialVersionUID = -834860977423967844L;
+
+    private final MemoryProtocol protocol;
+
+    private final static Logger logger = LogManager.getLogger(MemoryServlet.class);
+
+    public MemoryServlet(MemoryProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        request.setCharacterEncoding("UTF8");
+        Gson gson = new Gson();
+        MemoryProtocol.Response resp;
+        try {
+            MemoryProtocol.Request req = gson.fromJson(request.getReader(), MemoryProtocol.Request.class);
+            logger.info("Append received: memory {} of system '{}'", req == null ? 0 : req.memory, req == null ? "" : req.systemId);
+            resp = req == null ? MemoryProtocol.Response.error("Invalid request") : protocol.respond(req);
+        } catch (JsonParseException e) {
+            resp = MemoryProtocol.Response.error("Invalid request: " + e.getMessage());
+        }
+        logger.info("Append response: " + resp);
+
+        response.setContentType("text/json");
+        response.setStatus(resp.error == null ? HttpServletResponse.SC_OK : HttpServletResponse.SC_BAD_REQUEST);
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        response.addHeader("Access-Control-Allow-Methods", "POST");
+        response.setCharacterEncoding("UTF8");
+        response.getWriter().println(gson.toJson(resp));
+    }
+}
@@ -1,6 +1,9 @@
 package org.oscii.concordance;
 
+import com.codepoetics.protonpack.StreamUtils;
 import gnu.trove.THashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.oscii.lex.Expression;
 import org.oscii.lex.Meaning;
 
@@ -8,18 +11,35 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 /**
  * Interface to access corpus statistics and examples
  */
 public abstract class AlignedCorpus {
+    private final static Logger log = LogManager.getLogger(AlignedCorpus.class);
+
+    public static final int DEFAULT_CANDIDATE_BUDGET = 1000;
+    public static final int DEFAULT_SHORTLIST_SIZE = 0;
+
+    private static final Pattern TERM_DELIMITERS = Pattern.compile("[\\s\\p{P}]+");
+
+    private int candidateBudget = DEFAULT_CANDIDATE_BUDGET;
+    private int shortlistSize = DEFAULT_SHORTLIST_SIZE;
+
     static ParallelFiles paths(String path, String sourceLanguage, String targetLanguage) {
         Function<String, Path> p = ext -> Paths.get(String.format("%s.%s-%s.%s", path, sourceLanguage, targetLanguage, ext));
         return new ParallelFiles(p.apply(sourceLanguage), p.apply(targetLanguage), p.apply("align"));
@@ -34,11 +54,178 @@ public abstract class AlignedCorpus {
      */
     public abstract void read(String path, String sourceLanguage, String targetLanguage, int max) throws IOException;
 
+    /*
+     * Read the parallel files of all pairs of languages found for a corpus path.
+     */
+    public void readAll(String path, Collection<String> languages, int max) throws IOException {
+        for (String[] pair : pairs(path, languages)) {
+            read(path, pair[0], pair[1], max);
+        }
+    }
+
+    /*
+     * The pairs of languages that have parallel files for a corpus path, in sorted order.
+     */
+    static List<String[]> pairs(String path, Collection<String> languages) throws IOException {
+        Path prefix = Paths.get(path).toAbsolutePath();
+        String name = prefix.getFileName() + ".";
+        List<String[]> pairs = new ArrayList<>();
+        if (!Files.isDirectory(prefix.getParent())) {
+            log.warn("Could not find corpus directory for " + path);
+            return pairs;
+        }
+        try (Stream<Path> files = Files.list(prefix.getParent())) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(f -> f.startsWith(name) && f.endsWith(".align"))
+                    .map(f -> f.substring(name.length(), f.length() - ".align".length()).split("-"))
+                    .filter(pair -> pair.length == 2 && languages.contains(pair[0]) && languages.contains(pair[1]))
+                    .sorted(Comparator.comparing((String[] pair) -> pair[0]).thenComparing(pair -> pair[1]))
+                    .forEach(pairs::add);
+        }
+        pairs.removeIf(pair -> {
+            boolean exists = paths(path, pair[0], pair[1]).stream().allMatch(Files::exists);
+            if (!exists) log.warn("Missing sentences for " + pair[0] + "-" + pair[1] + " in " + path);
+            return !exists;
+        });
+        if (pairs.isEmpty()) {
+            log.warn("Could not find corpus for " + languages + " in " + path);
+        }
+        return pairs;
+    }
+
+    /*
+     * Read parallel files, appending sentences to the lists of their languages and
+     * numbering them by position.
+     */
+    static void readSentences(String path, String sourceLanguage, String targetLanguage, int max,
+                              Map<String, List<AlignedSentence>> sentences) throws IOException {
+        log.info("Reading sentences: " + sourceLanguage + "-" + targetLanguage);
+        ParallelFiles paths = paths(path, sourceLanguage, targetLanguage);
+        Stream<String> sources = Files.lines(paths.sourceSentences);
+        Stream<String> targets = Files.lines(paths.targetSentences);
+        Stream<String> aligns = Files.lines(paths.alignments);
+        if (max > 0) {
+            sources = sources.limit(max);
+            targets = targets.limit(max);
+            aligns = aligns.limit(max);
+        }
+        List<AlignedSentence> aligned = new ArrayList<>();
+        StreamUtils.zip(sources, targets, aligns,
+                (s, t, a) -> AlignedSentence.parse(s.split("\\s+"), t.split("\\s+"), a, sourceLanguage, targetLanguage))
+                .forEach(aligned::addAll);
+        log.info("Grouping by language");
+        aligned.stream().collect(groupingBy(a -> a.language))
+                .entrySet().stream().forEach(e -> {
+            List<AlignedSentence> all = sentences.get(e.getKey());
+            if (all == null) {
+                all = new ArrayList<>(e.getValue().size());
+                sentences.put(e.getKey(), all);
+            }
+            for (AlignedSentence s : e.getValue()) {
+                s.id = all.size();
+                all.add(s);
+            }
+        });
+    }
+
     /*
      * Return a function that takes phrases in another language and returns translation frequencies.
      */
     public abstract Function<Expression, Double> translationFrequencies(Expression source);
 
+    /*
+     * The number of examples returned for ranking, i.e., when examples are not limited
+     * by a maximum count. More frequent phrases are sampled; 0 returns all examples.
+     */
+    public int getCandidateBudget() {
+        return candidateBudget;
+    }
+
+    public void setCandidateBudget(int candidateBudget) {
+        this.candidateBudget = candidateBudget;
+    }
+
+    /*
+     * Indices in [0, count) of a deterministic stratified sample of budget items, in
+     * increasing order: [0, count) is split into budget strata of equal size, and each
+     * contributes the item at a pseudo-random offset that depends on seed. Items in corpus
+     * order are thus sampled evenly across documents. All indices if budget is 0 or at
+     * least count.
+     */
+    static int[] stratifiedSample(int count, int budget, long seed) {
+        if (budget <= 0 || budget >= count) {
+            return IntStream.range(0, count).toArray();
+        }
+        int[] sample = new int[budget];
+        for (int k = 0; k < budget; k++) {
+            long from = (long) k * count / budget, to = (long) (k + 1) * count / budget;
+            sample[k] = (int) (from + Long.remainderUnsigned(mix(seed + k), to - from));
+        }
+        return sample;
+    }
+
+    /*
+     * The seed that samples the examples of a query.
+     */
+    static long sampleSeed(String query, String source, String target) {
+        return mix(((long) query.hashCode() << 32) ^ (source.hashCode() * 31 + target.hashCode()));
+    }
+
+    /*
+     * The number of examples kept for ranking by embeddings, chosen by their lexical
+     * overlap with the context of a request; 0 keeps all.
+     */
+    public int getShortlistSize() {
+        return shortlistSize;
+    }
+
+    public void setShortlistSize(int shortlistSize) {
+        this.shortlistSize = shortlistSize;
+    }
+
+    /*
+     * The first stage of ranking examples by a context: the examples whose sentences
+     * score highest under BM25 for the words of the context, in their original order, so
+     * that only these are ranked by embeddings. Examples are returned unchanged if there
+     * are no more than the shortlist size, or no word of the context is indexed.
+     */
+    public List<SentenceExample> shortlist(String context, String language, List<SentenceExample> examples) {
+        return shortlist(context, language, examples, shortlistSize);
+    }
+
+    List<SentenceExample> shortlist(String context, String language, List<SentenceExample> examples, int size) {
+        if (size <= 0 || examples.size() <= size || context == null) {
+            return examples;
+        }
+        String[] terms = TERM_DELIMITERS.splitAsStream(context).filter(t -> !t.isEmpty()).toArray(String[]::new);
+        double[] scores = terms.length == 0 ? null : lexicalScores(language, terms, examples);
+        if (scores == null) {
+            return examples;
+        }
+        return IntStream.range(0, scores.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> -scores[i]).thenComparingInt(i -> i))
+                .limit(size)
+                .sorted()
+                .map(examples::get)
+                .collect(toList());
+    }
+
+    /*
+     * BM25 scores of the sentences of examples for the words of a context, or null if
+     * the corpus has no index of token postings or none of the words occur in it. A word
+     * that does not occur is looked up in lower case.
+     */
+    double[] lexicalScores(String language, String[] terms, List<SentenceExample> examples) {
+        return null;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     /*
      * Score a meaning for the purpose of ranking.
      */
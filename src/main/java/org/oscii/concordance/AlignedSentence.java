@@ -1,39 +1,52 @@
 package org.oscii.concordance;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static java.util.Arrays.asList;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toList;
 
 /**
  * A sentence word-aligned to a translation.
  */
 public class AlignedSentence {
+    // Shared delimiters of sentences with single spaces between words, by length
+    private static final String[][] DEFAULT_DELIMITERS = new String[256][];
+
+    static {
+        for (int length = 0; length < DEFAULT_DELIMITERS.length; length++) {
+            DEFAULT_DELIMITERS[length] = newDefaultDelimiters(length);
+        }
+    }
+
     public final String[] tokens;
     public final String[] delimiters;
 
-    private int[][] alignment;
+    private final Alignment links; // null if not aligned
+    private int[][] alignment; // links as arrays, created on first use
     public final String language;
     public AlignedSentence aligned;
     String source;
+    int id = -1; // position in the corpus that holds this sentence
 
-    private AlignedSentence(String[] tokens, String[] delimiters, int[][] alignment, String language) {
-        this(tokens, delimiters, alignment, language, "");
+    private AlignedSentence(String[] tokens, String[] delimiters, Alignment links, String language) {
+        this(tokens, delimiters, links, language, "");
+    }
+
+    private AlignedSentence(String[] tokens, String[] delimiters, Alignment links, String language, String source) {
+        this(tokens, delimiters, links, language, source, -1);
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokens[i].intern();
+        }
     }
 
-    private AlignedSentence(String[] tokens, String[] delimiters, int[][] alignment, String language, String source) {
+    // Tokens are used as they are
+    private AlignedSentence(String[] tokens, String[] delimiters, Alignment links, String language, String source, int id) {
         this.tokens = tokens;
         this.delimiters = delimiters;
-        this.alignment = alignment;
+        this.links = links;
         this.language = language;
         this.source = source;
-        for (int i = 0; i < tokens.length; i++) {
-            tokens[i] = tokens[i].intern();
-        }
+        this.id = id;
     }
 
     /**
@@ -42,27 +55,72 @@ public class AlignedSentence {
      * @return
      */
     public int[][] getAlignment() {
-        if (alignment == null && aligned.alignment != null) {
-            alignment = reverse(aligned.alignment, tokens.length);
+        if (alignment == null && links != null) {
+            alignment = links.toArray();
         }
         return alignment;
     }
 
+    /*
+     * Links to the aligned sentence, or null.
+     */
+    Alignment links() {
+        return links;
+    }
+
+    /**
+     * Position of this sentence among the sentences of its language in a corpus, or -1.
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * Create aligned sentences from tokens and Moses-format alignment links.
      */
     public static List<AlignedSentence> parse(String[] sourceTokens, String[] targetTokens, String[] alignment,
                                               String sourceLanguage, String targetLanguage) {
-        List<Link> links = asList(alignment).stream().map(Link::parse).collect(toList());
-        int sl = sourceTokens.length, tl = targetTokens.length;
-        AlignedSentence sourceToTarget = new AlignedSentence(sourceTokens, defaultDelimiters(sourceTokens.length), collectLinks(links, sl, false), sourceLanguage);
-        AlignedSentence targetToSource = new AlignedSentence(targetTokens, defaultDelimiters(sourceTokens.length), collectLinks(links, tl, true), targetLanguage);
+        return parse(sourceTokens, targetTokens, String.join(" ", alignment), sourceLanguage, targetLanguage);
+    }
+
+    /**
+     * Create aligned sentences from tokens and a line of Moses-format alignment links.
+     * Links outside either sentence are ignored.
+     */
+    public static List<AlignedSentence> parse(String[] sourceTokens, String[] targetTokens, CharSequence alignment,
+                                              String sourceLanguage, String targetLanguage) {
+        Alignment links = Alignment.parse(alignment, sourceTokens.length, targetTokens.length);
+        AlignedSentence sourceToTarget = new AlignedSentence(sourceTokens, defaultDelimiters(sourceTokens.length), links, sourceLanguage);
+        AlignedSentence targetToSource = new AlignedSentence(targetTokens, defaultDelimiters(targetTokens.length), links.reverse(), targetLanguage);
         sourceToTarget.aligned = targetToSource;
         targetToSource.aligned = sourceToTarget;
         return asList(new AlignedSentence[]{sourceToTarget, targetToSource});
     }
 
-    private static String[] defaultDelimiters(int length) {
+    /*
+     * A sentence and its translation that view columnar storage, using tokens as they are.
+     * Returns the first.
+     */
+    static AlignedSentence view(String[] tokens, Alignment links, String language, int id,
+                                String[] alignedTokens, String alignedLanguage, int alignedId) {
+        AlignedSentence sentence = new AlignedSentence(tokens, defaultDelimiters(tokens.length),
+                links, language, "", id);
+        AlignedSentence translation = new AlignedSentence(alignedTokens, defaultDelimiters(alignedTokens.length),
+                links.reverse(), alignedLanguage, "", alignedId);
+        sentence.aligned = translation;
+        translation.aligned = sentence;
+        return sentence;
+    }
+
+    /*
+     * Delimiters of a sentence with single spaces between words. Short sentences share
+     * arrays, which must not be modified.
+     */
+    static String[] defaultDelimiters(int length) {
+        return length < DEFAULT_DELIMITERS.length ? DEFAULT_DELIMITERS[length] : newDefaultDelimiters(length);
+    }
+
+    private static String[] newDefaultDelimiters(int length) {
         String[] delimiters = new String[length+1];
         delimiters[0] = ""; // No space before first word
         delimiters[length] = ""; // No space after last word
@@ -83,60 +141,20 @@ public class AlignedSentence {
             int[][] sourceToTargetLinks,
             String sourceLanguage,
             String targetLanguage) {
-        AlignedSentence sourceToTarget = new AlignedSentence(sourceTokens, sourceDelimiters, sourceToTargetLinks, sourceLanguage);
-        AlignedSentence targetToSource = new AlignedSentence(targetTokens, targetDelimiters, null, targetLanguage);
+        Alignment links = sourceToTargetLinks == null ? null : Alignment.of(sourceToTargetLinks, targetTokens.length);
+        AlignedSentence sourceToTarget = new AlignedSentence(sourceTokens, sourceDelimiters, links, sourceLanguage);
+        AlignedSentence targetToSource = new AlignedSentence(targetTokens, targetDelimiters, links == null ? null : links.reverse(), targetLanguage);
         sourceToTarget.aligned = targetToSource;
         targetToSource.aligned = sourceToTarget;
         return sourceToTarget;
     }
 
-    /**
-     * Reverse a source-to-target link array.
-     */
-    private static int[][] reverse(int[][] orig, int len) {
-        // TODO(denero) Could be faster without creating Link objects.
-        List<Link> links = new ArrayList<>();
-        for (int i = 0; i < orig.length; i++) {
-            for (int j = 0; j < orig[i].length; j++) {
-                links.add(new Link(i, j));
-            }
-        }
-        return collectLinks(links, len, true);
-    }
-
-    /*
-     * Convert list of links to a directional 2-d array of link positions.
-     */
-    private static int[][] collectLinks(List<Link> links, int len, boolean isTarget) {
-        int[][] alignment = new int[len][];
-        Map<Integer, List<Link>> index = links.stream().collect(
-                groupingBy(link -> link.get(isTarget)));
-        for (int i = 0; i < len; i++) {
-            List<Link> s = index.get(i);
-            if (s == null) {
-                alignment[i] = new int[0];
-            } else {
-                alignment[i] = new int[s.size()];
-                for (int j = 0; j < s.size(); j++) {
-                    alignment[i][j] = s.get(j).get(!isTarget);
-                }
-            }
-        }
-        return alignment;
-    }
-
     /*
      * One-to-one aligned target word for source position
      */
     public String aligned(int index) {
-        int linkedIndex = 0;
-        if (alignment[index].length == 1) {
-            linkedIndex = alignment[index][0];
-            if (aligned.alignment[linkedIndex].length == 1) {
-                return aligned.tokens[linkedIndex];
-            }
-        }
-        return null;
+        int linkedIndex = links.oneToOne(index);
+        return linkedIndex < 0 ? null : aligned.tokens[linkedIndex];
     }
 
     @Override
@@ -146,7 +164,7 @@ public class AlignedSentence {
 
         AlignedSentence that = (AlignedSentence) o;
 
-        if (!Arrays.deepEquals(alignment, that.alignment)) return false;
+        if (!Arrays.deepEquals(getAlignment(), that.getAlignment())) return false;
         if (!language.equals(that.language)) return false;
         if (!source.equals(that.source)) return false;
         if (!aligned.language.equals(that.aligned.language)) return false;
@@ -156,36 +174,11 @@ public class AlignedSentence {
 
     @Override
     public int hashCode() {
-        int result = Arrays.deepHashCode(alignment);
+        int result = Arrays.deepHashCode(getAlignment());
         result = 31 * result + language.hashCode();
         result = 31 * result + source.hashCode();
         result = 31 * result + aligned.language.hashCode();
         result = 31 * result + aligned.source.hashCode();
         return result;
     }
-
-    /*
-     * A parsed link.
-     */
-    private static class Link {
-        int sourcePos;
-        int targetPos;
-
-        Link(int sourcePos, int targetPos) {
-            this.sourcePos = sourcePos;
-            this.targetPos = targetPos;
-        }
-
-        static Link parse(String link) {
-            String[] parts = link.split("-");
-            if (parts.length != 2) {
-                throw new NumberFormatException();
-            }
-            return new Link(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
-        }
-
-        Integer get(boolean target) {
-            return target ? targetPos : sourcePos;
-        }
-    }
 }
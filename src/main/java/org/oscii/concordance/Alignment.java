@@ -0,0 +1,169 @@
+package org.oscii.concordance;
+
+import java.util.Arrays;
+
+/**
+ * Word alignment of a sentence pair in compressed sparse rows: the links of source word i
+ * are links[starts[i]] to links[starts[i+1]-1], in the order they were given. The target
+ * to source direction is built at the same time, and {@link #reverse()} views it.
+ */
+final class Alignment {
+    private final int[] starts;
+    private final int[] links;
+    private final int[] reverseStarts;
+    private final int[] reverseLinks;
+
+    private Alignment(int[] starts, int[] links, int[] reverseStarts, int[] reverseLinks) {
+        this.starts = starts;
+        this.links = links;
+        this.reverseStarts = reverseStarts;
+        this.reverseLinks = reverseLinks;
+    }
+
+    /**
+     * Parse whitespace-separated Moses-format links "i-j" of a line without splitting it.
+     * Links outside either sentence are ignored.
+     *
+     * @throws NumberFormatException if a link is malformed
+     */
+    static Alignment parse(CharSequence line, int sourceLength, int targetLength) {
+        // At most one link per three characters
+        int[] pairs = new int[2 * (line.length() / 3 + 1)];
+        int count = 0;
+        int i = 0, n = line.length();
+        while (i < n) {
+            char c = line.charAt(i);
+            if (isSpace(c)) {
+                i++;
+                continue;
+            }
+            int source = 0, target = 0, digits = 0;
+            while (i < n && (c = line.charAt(i)) >= '0' && c <= '9') {
+                source = 10 * source + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 9 || i == n || line.charAt(i) != '-') {
+                throw invalid(line);
+            }
+            i++;
+            digits = 0;
+            while (i < n && (c = line.charAt(i)) >= '0' && c <= '9') {
+                target = 10 * target + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 9 || (i < n && !isSpace(line.charAt(i)))) {
+                throw invalid(line);
+            }
+            if (source < sourceLength && target < targetLength) {
+                pairs[count++] = source;
+                pairs[count++] = target;
+            }
+        }
+        return of(pairs, count / 2, sourceLength, targetLength);
+    }
+
+    /**
+     * An alignment from the links of each source word. Links outside the target are ignored.
+     */
+    static Alignment of(int[][] sourceToTarget, int targetLength) {
+        int count = 0;
+        for (int[] row : sourceToTarget) count += row.length;
+        int[] pairs = new int[2 * count];
+        count = 0;
+        for (int i = 0; i < sourceToTarget.length; i++) {
+            for (int j : sourceToTarget[i]) {
+                if (j >= 0 && j < targetLength) {
+                    pairs[count++] = i;
+                    pairs[count++] = j;
+                }
+            }
+        }
+        return of(pairs, count / 2, sourceToTarget.length, targetLength);
+    }
+
+    /**
+     * An alignment from the first count (source, target) pairs of an array.
+     */
+    static Alignment of(int[] pairs, int count, int sourceLength, int targetLength) {
+        int[] starts = new int[sourceLength + 1];
+        int[] reverseStarts = new int[targetLength + 1];
+        for (int k = 0; k < count; k++) {
+            starts[pairs[2 * k] + 1]++;
+            reverseStarts[pairs[2 * k + 1] + 1]++;
+        }
+        for (int i = 0; i < sourceLength; i++) starts[i + 1] += starts[i];
+        for (int j = 0; j < targetLength; j++) reverseStarts[j + 1] += reverseStarts[j];
+        // Counting sort, stable in both directions
+        int[] links = new int[count];
+        int[] reverseLinks = new int[count];
+        int[] next = starts.clone();
+        int[] reverseNext = reverseStarts.clone();
+        for (int k = 0; k < count; k++) {
+            int i = pairs[2 * k], j = pairs[2 * k + 1];
+            links[next[i]++] = j;
+            reverseLinks[reverseNext[j]++] = i;
+        }
+        return new Alignment(starts, links, reverseStarts, reverseLinks);
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static NumberFormatException invalid(CharSequence line) {
+        return new NumberFormatException("Invalid alignment: " + line);
+    }
+
+    /**
+     * The target to source alignment, sharing arrays with this one.
+     */
+    Alignment reverse() {
+        return new Alignment(reverseStarts, reverseLinks, starts, links);
+    }
+
+    /**
+     * The number of source words.
+     */
+    int length() {
+        return starts.length - 1;
+    }
+
+    /**
+     * The number of links of a source word.
+     */
+    int count(int i) {
+        return starts[i + 1] - starts[i];
+    }
+
+    /**
+     * The k-th target word linked to a source word.
+     */
+    int link(int i, int k) {
+        return links[starts[i] + k];
+    }
+
+    /**
+     * The target word aligned one-to-one to a source word, i.e., each is linked only to
+     * the other, or -1.
+     */
+    int oneToOne(int i) {
+        if (starts[i + 1] - starts[i] != 1) {
+            return -1;
+        }
+        int j = links[starts[i]];
+        return reverseStarts[j + 1] - reverseStarts[j] == 1 ? j : -1;
+    }
+
+    /**
+     * The links of each source word as arrays.
+     */
+    int[][] toArray() {
+        int[][] result = new int[length()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Arrays.copyOfRange(links, starts[i], starts[i + 1]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package org.oscii.concordance;
+
+import java.util.Arrays;
+
+/**
+ * Okapi BM25 scores of sentences of token ids for the distinct terms of a query. Document
+ * frequencies may be counts of occurrences, as token postings give them; they are capped
+ * at the number of sentences. A query has few terms, so tokens are looked up by binary
+ * search. Instances keep working counts and are not thread-safe.
+ */
+final class Bm25 {
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    private final int[] terms; // sorted distinct ids
+    private final double[] idf;
+    private final double averageLength;
+    private final int[] counts; // occurrences of each term in the scored sentence
+
+    /**
+     * @param ids           non-negative ids of query terms, possibly repeated
+     * @param frequencies   document frequency of each id
+     * @param documents     number of sentences
+     * @param averageLength mean tokens per sentence
+     */
+    Bm25(int[] ids, int[] frequencies, int documents, double averageLength) {
+        // Sort by id, keeping the index of each
+        long[] keyed = new long[ids.length];
+        for (int k = 0; k < ids.length; k++) keyed[k] = ((long) ids[k] << 32) | k;
+        Arrays.sort(keyed);
+        int[] terms = new int[ids.length];
+        double[] idf = new double[ids.length];
+        int n = 0;
+        for (long key : keyed) {
+            int id = (int) (key >> 32), k = (int) key;
+            if (n > 0 && terms[n - 1] == id) continue;
+            double df = Math.min(frequencies[k], documents);
+            terms[n] = id;
+            idf[n++] = Math.log(1.0 + (documents - df + 0.5) / (df + 0.5));
+        }
+        this.terms = Arrays.copyOf(terms, n);
+        this.idf = Arrays.copyOf(idf, n);
+        this.averageLength = averageLength > 0 ? averageLength : 1.0;
+        this.counts = new int[n];
+    }
+
+    /**
+     * The number of distinct query terms.
+     */
+    int size() {
+        return terms.length;
+    }
+
+    /**
+     * The score of the sentence at [from, to) of a column of token ids.
+     */
+    double score(IntColumn tokens, int from, int to) {
+        Arrays.fill(counts, 0);
+        for (int i = from; i < to; i++) {
+            int k = Arrays.binarySearch(terms, tokens.get(i));
+            if (k >= 0) counts[k]++;
+        }
+        final double norm = K1 * (1 - B + B * (to - from) / averageLength);
+        double score = 0.0;
+        for (int k = 0; k < counts.length; k++) {
+            if (counts[k] > 0) score += idf[k] * counts[k] * (K1 + 1) / (counts[k] + norm);
+        }
+        return score;
+    }
+}
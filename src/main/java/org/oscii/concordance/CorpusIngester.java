@@ -0,0 +1,163 @@
+package org.oscii.concordance;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Read the parallel files of several language pairs into a {@link CorpusStore} at once.
+ * <p>
+ * Each pair is a pipeline: a reader thread reads batches of line triples, workers shared
+ * by all pairs tokenize them, parse their alignments and intern their words into a store
+ * per batch in parallel, and an appender merges the batch stores in order into a partial
+ * store of that pair, which renumbers each distinct word of a batch once rather than each
+ * token. The partial stores are merged into the target store in the order of pairs, so
+ * word and sentence ids do not depend on timing.
+ */
+public class CorpusIngester {
+    private final static Logger log = LogManager.getLogger(CorpusIngester.class);
+
+    static final int BATCH_SIZE = 1024; // sentence pairs per parsing task
+    private static final CorpusStore LAST = new CorpusStore(); // marks the end of the batches
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final int threads;
+
+    public CorpusIngester() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CorpusIngester(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Append up to max sentence pairs (all if max <= 0) of each pair of languages.
+     */
+    public void ingest(CorpusStore store, String path, List<String[]> pairs, int max) throws IOException {
+        ExecutorService pipelines = Executors.newCachedThreadPool();
+        ForkJoinPool workers = new ForkJoinPool(threads);
+        try {
+            List<Future<CorpusStore>> partials = new ArrayList<>();
+            for (String[] pair : pairs) {
+                partials.add(pipelines.submit(() -> ingest(path, pair[0], pair[1], max, pipelines, workers)));
+            }
+            for (int p = 0; p < pairs.size(); p++) {
+                CorpusStore partial = get(partials.get(p));
+                store.addAll(partial);
+                log.info("Merged " + partial.size(pairs.get(p)[0]) + " sentence pairs: " + pairs.get(p)[0] + "-" + pairs.get(p)[1]);
+            }
+        } finally {
+            pipelines.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    /*
+     * Run the pipeline of one pair, appending in the calling thread.
+     */
+    private CorpusStore ingest(String path, String sourceLanguage, String targetLanguage, int max,
+                               ExecutorService pipelines, ForkJoinPool workers) throws IOException {
+        log.info("Reading sentences: " + sourceLanguage + "-" + targetLanguage);
+        // Parsed batches in file order; bounded, so that reading waits for parsing
+        BlockingQueue<CompletableFuture<CorpusStore>> parsed = new ArrayBlockingQueue<>(2 * threads);
+        Future<?> reader = pipelines.submit(() -> {
+            read(path, sourceLanguage, targetLanguage, max, parsed, workers);
+            return null;
+        });
+        CorpusStore partial = new CorpusStore();
+        try {
+            while (true) {
+                CorpusStore batch = parsed.take().join();
+                if (batch == LAST) break;
+                partial.addAll(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading " + sourceLanguage + "-" + targetLanguage, e);
+        } catch (CompletionException e) {
+            reader.cancel(true);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        get(reader);
+        return partial;
+    }
+
+    private void read(String path, String sourceLanguage, String targetLanguage, int max,
+                      BlockingQueue<CompletableFuture<CorpusStore>> parsed, ForkJoinPool workers)
+            throws IOException, InterruptedException {
+        AlignedCorpus.ParallelFiles paths = AlignedCorpus.paths(path, sourceLanguage, targetLanguage);
+        try (BufferedReader sources = Files.newBufferedReader(paths.sourceSentences, StandardCharsets.UTF_8);
+             BufferedReader targets = Files.newBufferedReader(paths.targetSentences, StandardCharsets.UTF_8);
+             BufferedReader aligns = Files.newBufferedReader(paths.alignments, StandardCharsets.UTF_8)) {
+            int pairs = 0;
+            String[] lines = new String[3 * BATCH_SIZE];
+            int n = 0;
+            String s, t, a;
+            while ((max <= 0 || pairs < max)
+                    && (s = sources.readLine()) != null
+                    && (t = targets.readLine()) != null
+                    && (a = aligns.readLine()) != null) {
+                lines[n++] = s;
+                lines[n++] = t;
+                lines[n++] = a;
+                pairs++;
+                if (n == lines.length) {
+                    final String[] batch = lines;
+                    parsed.put(CompletableFuture.supplyAsync(
+                            () -> parse(batch, batch.length, sourceLanguage, targetLanguage), workers));
+                    lines = new String[lines.length];
+                    n = 0;
+                }
+            }
+            final String[] batch = lines;
+            final int length = n;
+            parsed.put(CompletableFuture.supplyAsync(
+                    () -> parse(batch, length, sourceLanguage, targetLanguage), workers));
+        } finally {
+            parsed.put(CompletableFuture.completedFuture(LAST));
+        }
+    }
+
+    // The result of a task, rethrowing its failure
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    // A store of the sentence pairs of triples of source, target and alignment lines
+    private static CorpusStore parse(String[] lines, int length, String sourceLanguage, String targetLanguage) {
+        CorpusStore batch = new CorpusStore();
+        for (int i = 0; i < length / 3; i++) {
+            String[] s = WHITESPACE.split(lines[3 * i]);
+            String[] t = WHITESPACE.split(lines[3 * i + 1]);
+            batch.add(s, t, Alignment.parse(lines[3 * i + 2], s.length, t.length), sourceLanguage, targetLanguage);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,482 @@
+package org.oscii.concordance;
+
+import gnu.trove.TObjectIntHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar storage of an aligned corpus: the sentences of each language are one column of
+ * token ids over a vocabulary shared by all languages, and alignments are columns of
+ * packed links. A corpus of millions of sentence pairs is then a handful of int arrays
+ * rather than tens of millions of small objects.
+ * <p>
+ * {@link AlignedSentence} views are materialized on demand, e.g. for returned examples.
+ * Views use default delimiters, a single space between tokens.
+ */
+public class CorpusStore {
+    private final static Logger log = LogManager.getLogger(CorpusStore.class);
+
+    static final int END = 0; // id after each sentence, lower than all token ids
+    static final int MAX_POSITION = 0x7FFF; // links are packed into the two halves of an int
+
+    private final Vocabulary vocabulary;
+    private final List<String> languages;
+    private final Map<String, Column> columns;
+
+    public CorpusStore() {
+        this(new Words(), new ArrayList<>(), new HashMap<>());
+    }
+
+    /*
+     * A store of existing columns, in the order of languages.
+     */
+    CorpusStore(Vocabulary vocabulary, List<String> languages, List<Column> columns) {
+        this(vocabulary, new ArrayList<>(languages), new HashMap<>());
+        for (int i = 0; i < languages.size(); i++) {
+            this.columns.put(languages.get(i), columns.get(i));
+        }
+    }
+
+    private CorpusStore(Vocabulary vocabulary, List<String> languages, Map<String, Column> columns) {
+        this.vocabulary = vocabulary;
+        this.languages = languages;
+        this.columns = columns;
+    }
+
+    /*
+     * Append up to max sentence pairs (all if max <= 0) of parallel files.
+     */
+    public void read(String path, String sourceLanguage, String targetLanguage, int max) throws IOException {
+        new CorpusIngester().ingest(this, path, Collections.singletonList(new String[]{sourceLanguage, targetLanguage}), max);
+    }
+
+    /*
+     * Append up to max sentence pairs of the parallel files of all pairs of languages found
+     * for a corpus path, reading them concurrently.
+     */
+    public void readAll(String path, Collection<String> languages, int max) throws IOException {
+        new CorpusIngester().ingest(this, path, AlignedCorpus.pairs(path, languages), max);
+    }
+
+    /*
+     * Append a sentence pair with a line of Moses-format alignment links. Links outside
+     * either sentence are ignored.
+     */
+    public void add(String[] sourceTokens, String[] targetTokens, CharSequence alignment,
+                    String sourceLanguage, String targetLanguage) {
+        add(sourceTokens, targetTokens, Alignment.parse(alignment, sourceTokens.length, targetTokens.length),
+                sourceLanguage, targetLanguage);
+    }
+
+    synchronized void add(String[] sourceTokens, String[] targetTokens, Alignment alignment,
+                          String sourceLanguage, String targetLanguage) {
+        Column source = getOrCreate(sourceLanguage);
+        Column target = getOrCreate(targetLanguage);
+        int sourceId = source.size(), targetId = target.size();
+        source.addSentence(encode(sourceTokens), targetId, languageIndex(targetLanguage), alignment);
+        target.addSentence(encode(targetTokens), sourceId, languageIndex(sourceLanguage), alignment.reverse());
+    }
+
+    /*
+     * Append all sentences of another store, renumbering its words and sentences.
+     */
+    synchronized void addAll(CorpusStore other) {
+        int[] ids = new int[other.vocabulary.size()];
+        for (int id = 1; id < ids.length; id++) {
+            ids[id] = vocabulary.add(other.vocabulary.word(id));
+        }
+        int[] languageIds = new int[other.languages.size()];
+        int[] sentenceOffsets = new int[other.languages.size()];
+        for (int l = 0; l < languageIds.length; l++) {
+            String language = other.languages.get(l);
+            sentenceOffsets[l] = getOrCreate(language).size();
+            languageIds[l] = languageIndex(language);
+        }
+        for (String language : other.languages) {
+            Column from = other.columns.get(language), to = getOrCreate(language);
+            int tokenOffset = to.tokens.size(), linkOffset = to.links.size();
+            for (int i = 0; i < from.tokens.size(); i++) {
+                to.tokens.add(ids[from.tokens.get(i)]);
+            }
+            to.starts.addAll(from.starts, tokenOffset);
+            for (int s = 0; s < from.size(); s++) {
+                int alignedLanguage = from.alignedLanguages.get(s);
+                to.alignedSentences.add(from.alignedSentences.get(s) + sentenceOffsets[alignedLanguage]);
+                to.alignedLanguages.add(languageIds[alignedLanguage]);
+                to.linkStarts.add(from.linkStarts.get(s + 1) + linkOffset);
+            }
+            to.links.addAll(from.links, 0);
+        }
+    }
+
+    /*
+     * A store of the same sentences to append more to. It shares the columns of this store,
+     * which is unaffected by appends to it but must not grow afterwards.
+     */
+    synchronized CorpusStore extend() {
+        if (!(vocabulary instanceof Words)) {
+            throw new UnsupportedOperationException("A mapped store is read-only");
+        }
+        Map<String, Column> extended = new HashMap<>();
+        columns.forEach((language, column) -> extended.put(language, column.extend()));
+        return new CorpusStore(new Words((Words) vocabulary), new ArrayList<>(languages), extended);
+    }
+
+    private int[] encode(String[] tokens) {
+        int[] encoded = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            encoded[i] = vocabulary.add(tokens[i]);
+        }
+        return encoded;
+    }
+
+    private Column getOrCreate(String language) {
+        return columns.computeIfAbsent(language, l -> {
+            languageIndex(l);
+            return new Column();
+        });
+    }
+
+    private int languageIndex(String language) {
+        int index = languages.indexOf(language);
+        if (index < 0) {
+            index = languages.size();
+            languages.add(language);
+        }
+        return index;
+    }
+
+    /*
+     * Release unused capacity once all sentences are read.
+     */
+    public synchronized void trim() {
+        columns.values().forEach(Column::trim);
+        if (vocabulary instanceof Words) {
+            ((Words) vocabulary).trim();
+        }
+        log.info("Stored " + (vocabulary.size() - 1) + " words in " + (bytes() >> 20) + " MB of columns");
+    }
+
+    /*
+     * Approximate heap size of the columns, excluding the vocabulary.
+     */
+    public long bytes() {
+        return columns.values().stream().mapToLong(Column::bytes).sum();
+    }
+
+    public Iterable<String> languages() {
+        return Collections.unmodifiableList(languages);
+    }
+
+    /*
+     * The number of sentences of a language.
+     */
+    public int size(String language) {
+        Column column = columns.get(language);
+        return column == null ? 0 : column.size();
+    }
+
+    /*
+     * The id of a word, or END if it does not occur.
+     */
+    public int id(String word) {
+        return vocabulary.id(word);
+    }
+
+    public String word(int id) {
+        return vocabulary.word(id);
+    }
+
+    /*
+     * One more than the largest id.
+     */
+    public int vocabularySize() {
+        return vocabulary.size();
+    }
+
+    Vocabulary vocabulary() {
+        return vocabulary;
+    }
+
+    /*
+     * The columns of a language, or null.
+     */
+    Column column(String language) {
+        return columns.get(language);
+    }
+
+    /*
+     * Token ids of all sentences of a language, each sentence followed by END.
+     */
+    IntColumn tokens(String language) {
+        return columns.get(language).tokens;
+    }
+
+    /*
+     * The position of the first token of a sentence in tokens(language).
+     */
+    int start(String language, int sentence) {
+        return columns.get(language).starts.get(sentence);
+    }
+
+    /*
+     * The sentence that contains a position of tokens(language).
+     */
+    int sentenceAt(String language, int position) {
+        IntColumn starts = columns.get(language).starts;
+        return starts.lowerBound(0, starts.size(), position + 1) - 1;
+    }
+
+    /*
+     * The language of the translation of a sentence.
+     */
+    String alignedLanguage(String language, int sentence) {
+        return languages.get(columns.get(language).alignedLanguages.get(sentence));
+    }
+
+    /*
+     * The index of the translation of a sentence among the sentences of its language.
+     */
+    int alignedSentence(String language, int sentence) {
+        return columns.get(language).alignedSentences.get(sentence);
+    }
+
+    /*
+     * The id of the word aligned one-to-one to a token of a sentence, or END.
+     */
+    int alignedToken(String language, int sentence, int index) {
+        Column column = columns.get(language);
+        int j = column.onlyLink(sentence, index);
+        if (j < 0) {
+            return END;
+        }
+        String alignedLanguage = languages.get(column.alignedLanguages.get(sentence));
+        Column aligned = columns.get(alignedLanguage);
+        int alignedSentence = column.alignedSentences.get(sentence);
+        if (aligned.onlyLink(alignedSentence, j) != index) {
+            return END;
+        }
+        return aligned.tokens.get(aligned.starts.get(alignedSentence) + j);
+    }
+
+    /*
+     * The translation span [min, max] of a span of a sentence if the alignment is
+     * consistent, i.e., the translation span is aligned to nothing outside the span; null
+     * if not consistent or unaligned.
+     */
+    int[] alignedSpan(String language, int sentence, int start, int length) {
+        Column column = columns.get(language);
+        int min = Integer.MAX_VALUE, max = -1;
+        for (int k = column.linkStarts.get(sentence); k < column.linkStarts.get(sentence + 1); k++) {
+            int link = column.links.get(k);
+            int i = link >>> 16;
+            if (i >= start && i < start + length) {
+                min = Math.min(min, link & 0xFFFF);
+                max = Math.max(max, link & 0xFFFF);
+            }
+        }
+        if (max < 0) {
+            return null;
+        }
+        Column aligned = columns.get(languages.get(column.alignedLanguages.get(sentence)));
+        int alignedSentence = column.alignedSentences.get(sentence);
+        for (int k = aligned.linkStarts.get(alignedSentence); k < aligned.linkStarts.get(alignedSentence + 1); k++) {
+            int link = aligned.links.get(k);
+            int j = link >>> 16, i = link & 0xFFFF;
+            if (j >= min && j <= max && (i < start || i >= start + length)) {
+                return null;
+            }
+        }
+        return new int[]{min, max};
+    }
+
+    /*
+     * The words of a span of a sentence, separated by spaces.
+     */
+    String text(String language, int sentence, int start, int end) {
+        Column column = columns.get(language);
+        int offset = column.starts.get(sentence);
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            if (i > start) text.append(' ');
+            text.append(vocabulary.word(column.tokens.get(offset + i)));
+        }
+        return text.toString();
+    }
+
+    /*
+     * A view of a sentence and its translation.
+     */
+    public AlignedSentence sentence(String language, int sentence) {
+        Column column = columns.get(language);
+        String alignedLanguage = languages.get(column.alignedLanguages.get(sentence));
+        Column aligned = columns.get(alignedLanguage);
+        int alignedSentence = column.alignedSentences.get(sentence);
+        return AlignedSentence.view(
+                column.words(sentence, vocabulary), column.alignment(sentence, aligned.length(alignedSentence)),
+                language, sentence, aligned.words(alignedSentence, vocabulary), alignedLanguage, alignedSentence);
+    }
+
+    /*
+     * A growable vocabulary of interned words.
+     */
+    static class Words implements Vocabulary {
+        private final TObjectIntHashMap<String> ids; // absent words map to END
+        private final List<String> words;
+
+        Words() {
+            this.ids = new TObjectIntHashMap<>();
+            this.words = new ArrayList<>(Collections.singletonList(null));
+        }
+
+        Words(Words other) {
+            this.ids = other.ids.clone();
+            this.words = new ArrayList<>(other.words);
+        }
+
+        @Override
+        public int id(String word) {
+            return ids.get(word);
+        }
+
+        @Override
+        public String word(int id) {
+            return words.get(id);
+        }
+
+        @Override
+        public int size() {
+            return words.size();
+        }
+
+        @Override
+        public int add(String word) {
+            int id = ids.get(word);
+            if (id == END) {
+                id = words.size();
+                word = word.intern();
+                ids.put(word, id);
+                words.add(word);
+            }
+            return id;
+        }
+
+        void trim() {
+            ids.trimToSize();
+        }
+    }
+
+    /*
+     * The sentences of one language.
+     */
+    static class Column {
+        final IntColumn tokens; // token ids, each sentence followed by END
+        final IntColumn starts; // position of each sentence in tokens
+        final IntColumn alignedSentences; // sentence index of each translation
+        final IntColumn alignedLanguages; // language index of each translation
+        final IntColumn linkStarts; // position of the links of each sentence, and the end
+        final IntColumn links; // this position << 16 | translation position, in position order
+
+        Column() {
+            this(new IntColumn(), new IntColumn(), new IntColumn(), new IntColumn(), new IntColumn(), new IntColumn());
+            linkStarts.add(0);
+        }
+
+        Column(IntColumn tokens, IntColumn starts, IntColumn alignedSentences, IntColumn alignedLanguages,
+               IntColumn linkStarts, IntColumn links) {
+            this.tokens = tokens;
+            this.starts = starts;
+            this.alignedSentences = alignedSentences;
+            this.alignedLanguages = alignedLanguages;
+            this.linkStarts = linkStarts;
+            this.links = links;
+        }
+
+        // Columns that share the arrays of these; see IntColumn.extend
+        Column extend() {
+            return new Column(tokens.extend(), starts.extend(), alignedSentences.extend(),
+                    alignedLanguages.extend(), linkStarts.extend(), links.extend());
+        }
+
+        /*
+         * All columns, in the order of the constructor.
+         */
+        List<IntColumn> all() {
+            return Arrays.asList(tokens, starts, alignedSentences, alignedLanguages, linkStarts, links);
+        }
+
+        int size() {
+            return starts.size();
+        }
+
+        void addSentence(int[] ids, int alignedSentence, int alignedLanguage, Alignment alignment) {
+            starts.add(tokens.size());
+            for (int id : ids) tokens.add(id);
+            tokens.add(END);
+            alignedSentences.add(alignedSentence);
+            alignedLanguages.add(alignedLanguage);
+            for (int i = 0; i < ids.length && i <= MAX_POSITION; i++) {
+                for (int k = 0; k < alignment.count(i); k++) {
+                    int j = alignment.link(i, k);
+                    if (j <= MAX_POSITION) links.add(i << 16 | j);
+                }
+            }
+            linkStarts.add(links.size());
+        }
+
+        int length(int sentence) {
+            int end = sentence + 1 < starts.size() ? starts.get(sentence + 1) : tokens.size();
+            return end - starts.get(sentence) - 1;
+        }
+
+        String[] words(int sentence, Vocabulary vocabulary) {
+            String[] result = new String[length(sentence)];
+            int offset = starts.get(sentence);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = vocabulary.word(tokens.get(offset + i));
+            }
+            return result;
+        }
+
+        // The alignment of a sentence to its translation
+        Alignment alignment(int sentence, int alignedLength) {
+            int from = linkStarts.get(sentence), to = linkStarts.get(sentence + 1);
+            int[] pairs = new int[2 * (to - from)];
+            for (int k = from; k < to; k++) {
+                int link = links.get(k);
+                pairs[2 * (k - from)] = link >>> 16;
+                pairs[2 * (k - from) + 1] = link & 0xFFFF;
+            }
+            return Alignment.of(pairs, to - from, length(sentence), alignedLength);
+        }
+
+        // The only position linked to a token, or -1
+        int onlyLink(int sentence, int index) {
+            int to = linkStarts.get(sentence + 1);
+            // Links are ordered by this position, so binary search for the first of index
+            int k = links.lowerBound(linkStarts.get(sentence), to, index << 16);
+            if (k == to || links.get(k) >>> 16 != index
+                    || (k + 1 < to && links.get(k + 1) >>> 16 == index)) {
+                return -1;
+            }
+            return links.get(k) & 0xFFFF;
+        }
+
+        void trim() {
+            all().forEach(IntColumn::trim);
+        }
+
+        long bytes() {
+            return all().stream().mapToLong(IntColumn::bytes).sum();
+        }
+    }
+}
@@ -1,13 +1,11 @@
 package org.oscii.concordance;
 
-import com.codepoetics.protonpack.StreamUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.oscii.lex.Expression;
 import org.oscii.lex.Meaning;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.IntStream;
@@ -18,51 +16,41 @@ import static java.util.stream.Collectors.*;
 /**
  * Index and compute statistics over an aligned corpus.
  * <p>
- * This implementation is deprecated; use the SuffixArrayCorpus instead.
+ * This implementation is deprecated; use the {@link SuffixArrayAlignedCorpus} instead.
  */
 public class IndexedAlignedCorpus extends AlignedCorpus {
     // language -> sentences
     Map<String, List<AlignedSentence>> sentences = new HashMap<>();
     // language -> word -> locations
     Map<String, Map<String, List<Location>>> index = new HashMap<>();
+    // language -> mean tokens per sentence
+    Map<String, Double> averageLengths = new HashMap<>();
+    // words of all languages
+    Vocabulary vocabulary = new CorpusStore.Words();
+    // language -> translation counts of its words
+    Map<String, TranslationTable> translations = new HashMap<>();
 
     private final static Logger log = LogManager.getLogger(IndexedAlignedCorpus.class);
 
     @Override
     public void read(String path, String sourceLanguage, String targetLanguage, int max) throws IOException {
-        log.info("Reading sentences: " + sourceLanguage + "-" + targetLanguage);
-        AlignedCorpus.ParallelFiles paths = paths(path, sourceLanguage, targetLanguage);
-        Stream<String> sources = Files.lines(paths.sourceSentences);
-        Stream<String> targets = Files.lines(paths.targetSentences);
-        Stream<String> aligns = Files.lines(paths.alignments);
-        if (max > 0) {
-            sources = sources.limit(max);
-            targets = targets.limit(max);
-            aligns = aligns.limit(max);
-        }
-        List<AlignedSentence> aligned = new ArrayList<>();
-        StreamUtils.zip(sources, targets, aligns,
-                (s, t, a) -> AlignedSentence.parse(s.split("\\s+"), t.split("\\s+"), a.split("\\s+"), sourceLanguage, targetLanguage))
-                .forEach(aligned::addAll);
-        log.info("Grouping by language");
-        aligned.stream().collect(groupingBy(a -> a.language))
-                .entrySet().stream().forEach(e -> {
-            List<AlignedSentence> all = sentences.get(e.getKey());
-            if (all == null) {
-                all = new ArrayList<>(e.getValue().size());
-                sentences.put(e.getKey(), all);
-            }
-            all.addAll(e.getValue());
-        });
+        readSentences(path, sourceLanguage, targetLanguage, max, sentences);
     }
 
     @Override
     public void tally() {
-        sentences.keySet().stream().forEach(language -> {
+        index.putAll(sentences.keySet().parallelStream().collect(toMap(language -> language, language -> {
             log.info("Indexing words for " + language);
-            Map<String, List<Location>> indexForLanguage = indexTokens(sentences.get(language));
-            index.put(language, indexForLanguage);
-        });
+            return indexTokens(sentences.get(language));
+        })));
+        sentences.forEach((language, ss) ->
+                averageLengths.put(language, ss.stream().mapToInt(s -> s.tokens.length).average().orElse(1.0)));
+        log.info("Counting translations");
+        sentences.values().forEach(ss -> ss.forEach(s -> Stream.of(s.tokens).forEach(vocabulary::add)));
+        List<String> languages = new ArrayList<>(sentences.keySet());
+        Collections.sort(languages);
+        translations.putAll(languages.parallelStream().collect(toMap(language -> language,
+                language -> TranslationTable.build(sentences.get(language), vocabulary, languages))));
     }
 
     /*
@@ -75,38 +63,19 @@ public class IndexedAlignedCorpus extends AlignedCorpus {
     }
 
     /*
-     * Return a function that takes words in another language and returns translation frequencies.
+     * Return a function that takes words in another language and returns translation
+     * frequencies, which are counted when the corpus is tallied.
      */
     @Override
     public Function<Expression, Double> translationFrequencies(Expression source) {
-        if (!index.containsKey(source.language)) {
-            return AlignedCorpus::zeroFrequency;
-        }
-        List<Location> locations = index.get(source.language).get(source.text);
-        if (locations == null) {
+        TranslationTable table = translations.get(source.language);
+        final int id = vocabulary.id(source.text);
+        if (table == null || !table.contains(id)) {
             return AlignedCorpus::zeroFrequency;
         }
-        Map<String, Map<String, Long>> counts = countAll(locations);
-        return normalizeByLanguage(counts);
-    }
-
-    private Map<String, Map<String, Long>> countAll(List<Location> locations) {
-        return mapValues(
-                locations.stream().collect(
-                        groupingBy(t -> t.sentence.aligned.language)),
-                IndexedAlignedCorpus::countTranslations);
-    }
-
-    /*
-     * Count one-to-one aligned translations in locations.
-     */
-    private static Map<String, Long> countTranslations(List<Location> locations) {
-        return locations.stream().map(loc -> loc.sentence.aligned(loc.tokenIndex))
-                .filter(s -> s != null)
-                .collect(groupingBy(Function.identity(), counting()));
+        return target -> table.frequency(id, target.language, vocabulary.id(target.text));
     }
 
-
     @Override
     public List<SentenceExample> examples(String query, String source, String target, String systemId, int max, int memoryId, boolean bLimit) {
         if (!index.containsKey(source)) {
@@ -116,12 +85,44 @@ public class IndexedAlignedCorpus extends AlignedCorpus {
         if (!locations.containsKey(query)) {
             return Collections.EMPTY_LIST;
         }
-        Stream<Location> forQuery = locations.get(query).stream()
-                .filter(loc -> loc.sentence.aligned.language.equals(target));
-        if (bLimit) {
-            forQuery = forQuery.limit(max);
+        List<Location> all = locations.get(query).stream()
+                .filter(loc -> loc.sentence.aligned.language.equals(target))
+                .collect(toList());
+        return IntStream.of(stratifiedSample(all.size(), bLimit ? max : getCandidateBudget(), sampleSeed(query, source, target)))
+                .mapToObj(all::get)
+                .map(loc -> new SentenceExample(loc.sentence, loc.tokenIndex, 1, 0, 0, -1))
+                .collect(toList());
+    }
+
+    /*
+     * Document frequencies are the numbers of locations of words.
+     */
+    @Override
+    double[] lexicalScores(String language, String[] terms, List<SentenceExample> examples) {
+        Map<String, List<Location>> locations = index.get(language);
+        if (locations == null) {
+            return null;
+        }
+        // Number the words of the context that occur from 1
+        Map<String, Integer> ids = new HashMap<>();
+        List<Integer> frequencies = new ArrayList<>();
+        for (String term : terms) {
+            String word = locations.containsKey(term) ? term : term.toLowerCase();
+            if (locations.containsKey(word) && !ids.containsKey(word)) {
+                ids.put(word, ids.size() + 1);
+                frequencies.add(locations.get(word).size());
+            }
+        }
+        if (ids.isEmpty()) {
+            return null;
         }
-        return forQuery.map(loc -> new SentenceExample(loc.sentence, loc.tokenIndex, 1, 0, 0, -1)).collect(toList());
+        Bm25 bm25 = new Bm25(IntStream.rangeClosed(1, ids.size()).toArray(),
+                frequencies.stream().mapToInt(f -> f).toArray(), sentences.get(language).size(),
+                averageLengths.get(language));
+        return examples.stream().mapToDouble(ex -> {
+            int[] tokens = Stream.of(ex.sentence.tokens).mapToInt(t -> ids.getOrDefault(t, 0)).toArray();
+            return bm25.score(IntColumn.wrap(tokens), 0, tokens.length);
+        }).toArray();
     }
 
     /* Support classes */
@@ -0,0 +1,129 @@
+package org.oscii.concordance;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable column of ints whose backing array can be shared with readers, or a
+ * read-only column of a memory-mapped file.
+ */
+class IntColumn {
+    private int[] data;
+    private int size;
+    private final IntBuffer mapped; // null unless read-only
+
+    IntColumn() {
+        this(1024);
+    }
+
+    IntColumn(int capacity) {
+        this.data = new int[Math.max(1, capacity)];
+        this.mapped = null;
+    }
+
+    private IntColumn(int[] data, IntBuffer mapped, int size) {
+        this.data = data;
+        this.mapped = mapped;
+        this.size = size;
+    }
+
+    /**
+     * A column of all values of an array, which it takes ownership of.
+     */
+    static IntColumn wrap(int[] data) {
+        return new IntColumn(data, null, data.length);
+    }
+
+    /**
+     * A read-only column of all values of a buffer; it is read with absolute gets only,
+     * so it can be shared by all threads.
+     */
+    static IntColumn map(IntBuffer buffer) {
+        return new IntColumn(null, buffer, buffer.limit());
+    }
+
+    void add(int value) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException("Read-only column");
+        }
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length + (data.length >> 1) + 1);
+        }
+        data[size++] = value;
+    }
+
+    /**
+     * Append all values of another column, each plus delta.
+     */
+    void addAll(IntColumn other, int delta) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException("Read-only column");
+        }
+        if (size + other.size > data.length) {
+            data = Arrays.copyOf(data, Math.max(size + other.size, data.length + (data.length >> 1) + 1));
+        }
+        for (int i = 0; i < other.size; i++) {
+            data[size++] = other.get(i) + delta;
+        }
+    }
+
+    /**
+     * A column of the same values that shares the backing array, appending past size()
+     * where this column never reads. This column must not grow afterwards.
+     */
+    IntColumn extend() {
+        if (mapped != null) {
+            throw new UnsupportedOperationException("Read-only column");
+        }
+        return new IntColumn(data, null, size);
+    }
+
+    int get(int index) {
+        return mapped == null ? data[index] : mapped.get(index);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The backing array, whose first size() values are the column. It is replaced when the
+     * column grows, so readers must fetch it again after appending. Mapped columns have none.
+     */
+    int[] array() {
+        if (mapped != null) {
+            throw new UnsupportedOperationException("Mapped column");
+        }
+        return data;
+    }
+
+    /**
+     * The first index in [from, to) whose value is not less than a value, for columns that
+     * are sorted in that range.
+     */
+    int lowerBound(int from, int to, int value) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (get(mid) < value) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Release unused capacity.
+     */
+    void trim() {
+        if (mapped == null && data.length != size) data = Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Approximate heap size; mapped columns take none.
+     */
+    long bytes() {
+        return mapped == null ? 4L * data.length : 0L;
+    }
+}
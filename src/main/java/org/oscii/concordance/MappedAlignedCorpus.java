@@ -0,0 +1,374 @@
+package org.oscii.concordance;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link SuffixArrayAlignedCorpus} served from an index file that is built offline, so
+ * that startup does not depend on corpus size. The file is memory-mapped: columns are read
+ * in place, and the OS page cache is shared by all processes that serve it.
+ * <p>
+ * The file holds, in little-endian order:
+ * <ul>
+ * <li>a header: magic, vocabulary size V, number of languages, bytes of words</li>
+ * <li>the vocabulary: V+1 offsets of each word's UTF-8 bytes, the V-1 word ids sorted
+ * by those bytes, and the bytes of all words</li>
+ * <li>for each language: its name, the numbers of tokens, sentences and links, the
+ * columns of {@link CorpusStore.Column}, the suffix array, the numbers of segments and
+ * entries of its {@link TranslationTable}, and the columns of that table</li>
+ * </ul>
+ * Strings are padded to a multiple of four bytes.
+ */
+public class MappedAlignedCorpus extends SuffixArrayAlignedCorpus {
+    private final static Logger log = LogManager.getLogger(MappedAlignedCorpus.class);
+
+    private static final int MAGIC = 0x4c584332; // LXC2
+    private static final String DEFAULT_LANGUAGES = "en,es,de,fr";
+
+    private MappedAlignedCorpus(CorpusStore store, Map<String, IntColumn> suffixes,
+                                Map<String, TranslationTable> translations) {
+        super(store, suffixes, translations);
+    }
+
+    @Override
+    public void read(String path, String sourceLanguage, String targetLanguage, int max) {
+        throw new UnsupportedOperationException("A mapped corpus is built offline");
+    }
+
+    @Override
+    public void readAll(String path, Collection<String> languages, int max) {
+        throw new UnsupportedOperationException("A mapped corpus is built offline");
+    }
+
+    @Override
+    public void tally() {
+    }
+
+    /**
+     * Write the sentences, suffix arrays and translation tables of a tallied corpus.
+     */
+    public static void write(SuffixArrayAlignedCorpus corpus, File file) throws IOException {
+        CorpusStore store = corpus.store();
+        Vocabulary vocabulary = store.vocabulary();
+        final int size = vocabulary.size();
+        byte[][] words = new byte[size][];
+        words[CorpusStore.END] = new byte[0];
+        for (int id = 1; id < size; id++) {
+            words[id] = vocabulary.word(id).getBytes(StandardCharsets.UTF_8);
+        }
+        int[] sorted = IntStream.range(1, size).boxed()
+                .sorted(Comparator.comparing(id -> words[id], MappedAlignedCorpus::compare))
+                .mapToInt(id -> id).toArray();
+        List<String> languages = new ArrayList<>();
+        store.languages().forEach(languages::add);
+
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            Output out = new Output(fos.getChannel());
+            int bytes = 0;
+            for (byte[] word : words) bytes += word.length;
+            out.putInt(MAGIC).putInt(size).putInt(languages.size()).putInt(bytes);
+            int offset = 0;
+            for (byte[] word : words) {
+                out.putInt(offset);
+                offset += word.length;
+            }
+            out.putInt(offset);
+            for (int id : sorted) out.putInt(id);
+            for (byte[] word : words) out.putBytes(word);
+            out.pad();
+            for (String language : languages) {
+                CorpusStore.Column column = store.column(language);
+                out.putString(language);
+                out.putInt(column.tokens.size()).putInt(column.size()).putInt(column.links.size());
+                for (IntColumn c : column.all()) out.putInts(c);
+                out.putInts(corpus.suffixes(language));
+                TranslationTable table = corpus.translations(language);
+                out.putInt(table.segmentLanguages.size()).putInt(table.size());
+                for (IntColumn c : table.all()) out.putInts(c);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Memory-map an index file.
+     */
+    public static MappedAlignedCorpus map(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            Input in = new Input(fis.getChannel());
+            if (in.channel.size() < 16 || in.getInt() != MAGIC) {
+                throw new IOException("Not a corpus index: " + file);
+            }
+            final int size = in.getInt();
+            final int languageCount = in.getInt();
+            final int bytes = in.getInt();
+            IntColumn offsets = in.getInts(size + 1);
+            IntColumn sorted = in.getInts(size - 1);
+            ByteBuffer words = in.getBytes(bytes);
+            Vocabulary vocabulary = new MappedVocabulary(offsets, sorted, words);
+
+            List<String> languages = new ArrayList<>();
+            List<CorpusStore.Column> columns = new ArrayList<>();
+            Map<String, IntColumn> suffixes = new HashMap<>();
+            Map<String, TranslationTable> translations = new HashMap<>();
+            for (int l = 0; l < languageCount; l++) {
+                String language = in.getString();
+                int tokens = in.getInt(), sentences = in.getInt(), links = in.getInt();
+                columns.add(new CorpusStore.Column(in.getInts(tokens), in.getInts(sentences),
+                        in.getInts(sentences), in.getInts(sentences), in.getInts(sentences + 1), in.getInts(links)));
+                suffixes.put(language, in.getInts(tokens));
+                languages.add(language);
+                int segments = in.getInt(), entries = in.getInt();
+                translations.put(language, new TranslationTable(languages, in.getInts(size + 1),
+                        in.getInts(segments), in.getInts(segments + 1), in.getInts(segments),
+                        in.getInts(entries), in.getInts(entries)));
+            }
+            if (in.position != in.channel.size()) {
+                throw new IOException("Corrupt corpus index: " + file);
+            }
+            log.info("Mapped {} languages and {} words from {}", languageCount, size - 1, file);
+            return new MappedAlignedCorpus(new CorpusStore(vocabulary, languages, columns), suffixes, translations);
+        }
+    }
+
+    // Unsigned lexicographic order of bytes, which is code point order for UTF-8
+    private static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) return (a[i] & 0xFF) - (b[i] & 0xFF);
+        }
+        return a.length - b.length;
+    }
+
+    /*
+     * Words stored in a mapped file, found by binary search over their sorted ids.
+     */
+    private static class MappedVocabulary implements Vocabulary {
+        private final IntColumn offsets;
+        private final IntColumn sorted;
+        private final ByteBuffer words; // absolute gets only
+
+        MappedVocabulary(IntColumn offsets, IntColumn sorted, ByteBuffer words) {
+            this.offsets = offsets;
+            this.sorted = sorted;
+            this.words = words;
+        }
+
+        @Override
+        public int id(String word) {
+            byte[] key = word.getBytes(StandardCharsets.UTF_8);
+            int lo = 0, hi = sorted.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int id = sorted.get(mid);
+                int c = compare(key, id);
+                if (c == 0) return id;
+                if (c > 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return CorpusStore.END;
+        }
+
+        private int compare(byte[] key, int id) {
+            int from = offsets.get(id), length = offsets.get(id + 1) - from;
+            int n = Math.min(key.length, length);
+            for (int i = 0; i < n; i++) {
+                int b = words.get(from + i);
+                if (key[i] != b) return (key[i] & 0xFF) - (b & 0xFF);
+            }
+            return key.length - length;
+        }
+
+        @Override
+        public String word(int id) {
+            if (id == CorpusStore.END) {
+                return null;
+            }
+            int from = offsets.get(id);
+            byte[] bytes = new byte[offsets.get(id + 1) - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = words.get(from + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int size() {
+            return offsets.size() - 1;
+        }
+
+        @Override
+        public int add(String word) {
+            throw new UnsupportedOperationException("A mapped vocabulary is read-only");
+        }
+    }
+
+    /*
+     * Buffered little-endian writes to a channel.
+     */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Output putInt(int value) throws IOException {
+            if (block.remaining() < 4) flush();
+            block.putInt(value);
+            position += 4;
+            return this;
+        }
+
+        void putInts(IntColumn column) throws IOException {
+            for (int i = 0; i < column.size(); i++) putInt(column.get(i));
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (byte b : bytes) {
+                if (!block.hasRemaining()) flush();
+                block.put(b);
+            }
+            position += bytes.length;
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+            pad();
+        }
+
+        // Align to a multiple of four bytes
+        void pad() throws IOException {
+            while (position % 4 != 0) putBytes(new byte[1]);
+        }
+
+        void flush() throws IOException {
+            block.flip();
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+            block.clear();
+        }
+    }
+
+    /*
+     * Sequential reads of a channel, mapping each column.
+     */
+    private static class Input {
+        private final FileChannel channel;
+        private long position;
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        int getInt() throws IOException {
+            ByteBuffer value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (value.hasRemaining()) {
+                if (channel.read(value, position + value.position()) < 0) {
+                    throw new IOException("Truncated corpus index");
+                }
+            }
+            position += 4;
+            return value.getInt(0);
+        }
+
+        IntColumn getInts(int count) throws IOException {
+            return IntColumn.map(map(4L * count).asIntBuffer());
+        }
+
+        ByteBuffer getBytes(int count) throws IOException {
+            ByteBuffer bytes = map(count);
+            position = (position + 3) & ~3L;
+            return bytes;
+        }
+
+        String getString() throws IOException {
+            ByteBuffer bytes = getBytes(getInt());
+            byte[] s = new byte[bytes.remaining()];
+            bytes.get(s);
+            return new String(s, StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer map(long length) throws IOException {
+            if (length < 0 || length > Integer.MAX_VALUE || position + length > channel.size()) {
+                throw new IOException("Corrupt corpus index");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            position += length;
+            return buffer;
+        }
+    }
+
+    /**
+     * Build an index file offline from the parallel files of a corpus.
+     */
+    public static void main(String[] args) throws IOException {
+        OptionSet options = parse(args);
+        String path = (String) options.valueOf("corpus");
+        int max = (Integer) options.valueOf("max");
+        List<String> languages = Arrays.asList(((String) options.valueOf("languages")).split(","));
+        SuffixArrayAlignedCorpus corpus = new SuffixArrayAlignedCorpus();
+        corpus.readAll(path, languages, max);
+        corpus.tally();
+        File output = (File) options.valueOf("output");
+        write(corpus, output);
+        log.info("Wrote {} ({} MB)", output, output.length() >> 20);
+    }
+
+    /*
+     * Parse command-line arguments.
+     */
+    private static OptionSet parse(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        parser.accepts("corpus", "path to corpus (no suffixes)").withRequiredArg().required();
+        parser.accepts("languages", "comma-separated languages").withRequiredArg().defaultsTo(DEFAULT_LANGUAGES);
+        parser.accepts("max", "maximum number of sentence pairs per language pair, 0 for all").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        parser.accepts("output", "index file to write").withRequiredArg().ofType(File.class).required();
+
+        OptionSet options = null;
+        parser.acceptsAll(Arrays.asList("h", "help"), "show help").forHelp();
+
+        boolean printHelp = false;
+        try {
+            options = parser.parse(args);
+            if (options.has("help")) {
+                printHelp = true;
+            }
+        } catch (Exception e) {
+            printHelp = true;
+        }
+        if (printHelp) {
+            parser.printHelpOn(System.out);
+            System.exit(0);
+        }
+        return options;
+    }
+}
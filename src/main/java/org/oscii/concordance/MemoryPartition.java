@@ -0,0 +1,141 @@
+package org.oscii.concordance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A translation memory that grows while it is searched. Sentence pairs appended to it go
+ * to a delta, which is scanned and so searchable at once. A merge appends the delta to
+ * the main suffix array index, inserting only the suffixes of the new sentences (see
+ * {@link SuffixArrayAlignedCorpus#extend}), and then drops the merged pairs from the
+ * delta.
+ * <p>
+ * Both parts are held by an immutable snapshot, so searches never wait. Appends and merges
+ * replace the snapshot under a lock that is held only to copy the delta; a merge builds
+ * its index outside of it.
+ */
+final class MemoryPartition {
+    private final Object writer = new Object(); // replaces the snapshot
+    private final Object merger = new Object(); // one merge at a time
+    private final AtomicBoolean mergeQueued = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+
+    MemoryPartition(SuffixArrayAlignedCorpus main) {
+        this.snapshot = new Snapshot(main, new AlignedSentence[0]);
+    }
+
+    /**
+     * Append sentence pairs, each the first sentence of a pair with its translation, and
+     * return the number of pairs in the delta.
+     */
+    int append(Collection<AlignedSentence> pairs) {
+        synchronized (writer) {
+            Snapshot current = snapshot;
+            AlignedSentence[] delta = Arrays.copyOf(current.delta, current.delta.length + pairs.size());
+            int i = current.delta.length;
+            for (AlignedSentence pair : pairs) delta[i++] = pair;
+            snapshot = new Snapshot(current.main, delta);
+            return delta.length;
+        }
+    }
+
+    /**
+     * Mark a merge as queued, or return false if one already is. A merge that starts
+     * clears the mark.
+     */
+    boolean queueMerge() {
+        return mergeQueued.compareAndSet(false, true);
+    }
+
+    /**
+     * Index the delta with the main index and return the number of pairs merged. Pairs
+     * appended meanwhile stay in the delta.
+     */
+    int merge() {
+        synchronized (merger) {
+            mergeQueued.set(false);
+            Snapshot merging = snapshot;
+            if (merging.delta.length == 0) {
+                return 0;
+            }
+            // Merges are serial, so only the latest main index is extended
+            SuffixArrayAlignedCorpus merged = merging.main.extend(Arrays.asList(merging.delta));
+            synchronized (writer) {
+                // Merges are serial, so the merged pairs are still a prefix of the delta
+                AlignedSentence[] delta = snapshot.delta;
+                snapshot = new Snapshot(merged, Arrays.copyOfRange(delta, merging.delta.length, delta.length));
+            }
+            return merging.delta.length;
+        }
+    }
+
+    /**
+     * Examples of a phrase from the delta, and from the main index if the budget allows.
+     * Delta examples come last and, as the most recent, are kept first when there are more
+     * than the budget (if positive).
+     */
+    List<SentenceExample> examples(String query, String source, String target, int budget) {
+        Snapshot current = snapshot;
+        String[] phrase = query.trim().split("\\s+");
+        List<SentenceExample> recent = new ArrayList<>();
+        for (int k = current.delta.length - 1; k >= 0 && (budget <= 0 || recent.size() < budget); k--) {
+            AlignedSentence pair = current.delta[k];
+            for (AlignedSentence sentence : new AlignedSentence[]{pair, pair.aligned}) {
+                if (sentence.language.equals(source) && sentence.aligned.language.equals(target)) {
+                    addOccurrences(sentence, phrase, recent);
+                }
+            }
+        }
+        if (budget > 0 && recent.size() > budget) {
+            recent = recent.subList(0, budget);
+        }
+        List<SentenceExample> examples = new ArrayList<>();
+        if (budget <= 0 || recent.size() < budget) {
+            int rest = budget <= 0 ? 0 : budget - recent.size();
+            examples.addAll(current.main.examples(query, source, target, null, rest, -1, true));
+        }
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            examples.add(recent.get(i));
+        }
+        return examples;
+    }
+
+    // Add an example for each occurrence of a phrase in a sentence, last first
+    private static void addOccurrences(AlignedSentence sentence, String[] phrase, List<SentenceExample> examples) {
+        String[] tokens = sentence.tokens;
+        for (int i = tokens.length - phrase.length; i >= 0; i--) {
+            int j = 0;
+            while (j < phrase.length && tokens[i + j].equals(phrase[j])) j++;
+            if (j == phrase.length) {
+                examples.add(SentenceExample.create(sentence, i, phrase.length, -1));
+            }
+        }
+    }
+
+    /**
+     * The number of pairs not yet merged.
+     */
+    int deltaSize() {
+        return snapshot.delta.length;
+    }
+
+    /**
+     * The main index, which is replaced by merges.
+     */
+    SuffixArrayAlignedCorpus main() {
+        return snapshot.main;
+    }
+
+    private static final class Snapshot {
+        final SuffixArrayAlignedCorpus main;
+        final AlignedSentence[] delta; // never modified
+
+        Snapshot(SuffixArrayAlignedCorpus main, AlignedSentence[] delta) {
+            this.main = main;
+            this.delta = delta;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.oscii.concordance;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.oscii.lex.Expression;
+import org.oscii.lex.Meaning;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A background corpus and personal translation memories, each indexed separately and
+ * identified by a system id and a memory id > 0. Examples for a request are found in its
+ * own memory first, then in the background under what remains of the candidate budget,
+ * so memory lookups do not depend on the size of the background.
+ * <p>
+ * Sentence pairs can be appended to a memory while it is searched; see
+ * {@link MemoryPartition}. Appended pairs are merged into the index of their memory by a
+ * background thread, every MERGE_SECONDS or once MAX_DELTA are waiting, until the corpus
+ * is closed.
+ * <p>
+ * Translation frequencies are those of the background.
+ */
+public class PartitionedAlignedCorpus extends AlignedCorpus implements AutoCloseable {
+    private final static Logger log = LogManager.getLogger(PartitionedAlignedCorpus.class);
+
+    static final int MERGE_SECONDS = 10;
+    static final int MAX_DELTA = 1000; // appended pairs of a memory that trigger a merge
+
+    private final AlignedCorpus background;
+    private final Map<Partition, MemoryPartition> memories = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService merger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "memory-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PartitionedAlignedCorpus(AlignedCorpus background) {
+        this.background = background;
+        setCandidateBudget(background.getCandidateBudget());
+        setShortlistSize(background.getShortlistSize());
+        merger.scheduleWithFixedDelay(this::mergeAll, MERGE_SECONDS, MERGE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public AlignedCorpus getBackground() {
+        return background;
+    }
+
+    @Override
+    public void read(String path, String sourceLanguage, String targetLanguage, int max) throws IOException {
+        background.read(path, sourceLanguage, targetLanguage, max);
+    }
+
+    @Override
+    public void readAll(String path, Collection<String> languages, int max) throws IOException {
+        background.readAll(path, languages, max);
+    }
+
+    @Override
+    public void tally() {
+        background.tally();
+    }
+
+    /*
+     * Read and index the parallel files of a translation memory, replacing any memory
+     * with the same ids.
+     */
+    public void readMemory(String systemId, int memoryId, String path, Collection<String> languages, int max) throws IOException {
+        SuffixArrayAlignedCorpus memory = new SuffixArrayAlignedCorpus();
+        memory.readAll(path, languages, max);
+        memory.tally();
+        putMemory(systemId, memoryId, memory);
+    }
+
+    /*
+     * Add a tallied translation memory, replacing any memory with the same ids.
+     */
+    public void putMemory(String systemId, int memoryId, SuffixArrayAlignedCorpus memory) {
+        if (memoryId <= 0) {
+            throw new IllegalArgumentException("Memory ids must be positive: " + memoryId);
+        }
+        memories.put(new Partition(systemId, memoryId), new MemoryPartition(memory));
+        log.info("Added memory {} of system '{}' ({} bytes)", memoryId, systemId, memory.store().bytes());
+    }
+
+    /*
+     * Append sentence pairs to a translation memory, which is created if there is none.
+     * Each pair is given by its first sentence, aligned to the second (as the first of
+     * AlignedSentence.parse). They are searchable when this returns.
+     */
+    public void append(String systemId, int memoryId, Collection<AlignedSentence> pairs) {
+        if (memoryId <= 0) {
+            throw new IllegalArgumentException("Memory ids must be positive: " + memoryId);
+        }
+        MemoryPartition memory = memories.computeIfAbsent(new Partition(systemId, memoryId),
+                p -> new MemoryPartition(new SuffixArrayAlignedCorpus()));
+        // At most one merge of a memory waits in the queue
+        if (memory.append(pairs) >= MAX_DELTA && memory.queueMerge()) {
+            try {
+                merger.execute(() -> merge(memory));
+            } catch (RejectedExecutionException e) {
+                log.debug("Not merging a memory after close");
+            }
+        }
+    }
+
+    /*
+     * Stop merging in the background once the merges already queued are done. Pairs
+     * appended later are only merged by mergeAll.
+     */
+    @Override
+    public void close() {
+        merger.shutdown();
+        try {
+            if (!merger.awaitTermination(MERGE_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Stopped waiting for memory merges");
+                merger.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            merger.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Merge the pairs appended to all memories into their indexes.
+     */
+    public void mergeAll() {
+        memories.values().forEach(PartitionedAlignedCorpus::merge);
+    }
+
+    // Merge a memory, logging failures so that scheduled merges continue
+    private static void merge(MemoryPartition memory) {
+        try {
+            int merged = memory.merge();
+            if (merged > 0) {
+                log.info("Merged {} appended sentence pairs into a memory", merged);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to merge a memory", e);
+        }
+    }
+
+    /*
+     * A translation memory, or null.
+     */
+    MemoryPartition getMemory(String systemId, int memoryId) {
+        return memories.get(new Partition(systemId, memoryId));
+    }
+
+    @Override
+    public void setCandidateBudget(int candidateBudget) {
+        super.setCandidateBudget(candidateBudget);
+        background.setCandidateBudget(candidateBudget);
+    }
+
+    @Override
+    public void setShortlistSize(int shortlistSize) {
+        super.setShortlistSize(shortlistSize);
+        background.setShortlistSize(shortlistSize);
+    }
+
+    @Override
+    public Function<Expression, Double> translationFrequencies(Expression source) {
+        return background.translationFrequencies(source);
+    }
+
+    @Override
+    public void scoreMeaning(Meaning m) {
+        background.scoreMeaning(m);
+    }
+
+    /*
+     * Examples of the memory of a request, marked with its memory id, followed by
+     * background examples up to a total of max (if limited) or the candidate budget.
+     */
+    @Override
+    public List<SentenceExample> examples(String query, String source, String target, String systemId, int max, int memoryId, boolean bLimit) {
+        final int budget = bLimit ? max : getCandidateBudget();
+        List<SentenceExample> examples = new ArrayList<>();
+        MemoryPartition memory = memoryId > 0 ? getMemory(systemId, memoryId) : null;
+        if (memory != null) {
+            for (SentenceExample ex : memory.examples(query, source, target, budget)) {
+                ex.memoryId = memoryId;
+                examples.add(ex);
+            }
+        }
+        if (budget <= 0) {
+            examples.addAll(background.examples(query, source, target, systemId, max, memoryId, bLimit));
+        } else if (examples.size() < budget) {
+            examples.addAll(background.examples(query, source, target, systemId, budget - examples.size(), memoryId, true));
+        }
+        return examples;
+    }
+
+    /*
+     * Memory examples are kept; background examples are shortlisted by the background
+     * corpus to fill the rest of the shortlist.
+     */
+    @Override
+    public List<SentenceExample> shortlist(String context, String language, List<SentenceExample> examples) {
+        final int size = getShortlistSize();
+        if (size <= 0 || examples.size() <= size) {
+            return examples;
+        }
+        List<SentenceExample> shortlist = new ArrayList<>();
+        List<SentenceExample> rest = new ArrayList<>();
+        for (SentenceExample ex : examples) {
+            (ex.memoryId > 0 ? shortlist : rest).add(ex);
+        }
+        if (shortlist.size() < size) {
+            shortlist.addAll(background.shortlist(context, language, rest, size - shortlist.size()));
+        }
+        return shortlist;
+    }
+
+    /*
+     * The ids of a translation memory.
+     */
+    private static final class Partition {
+        final String systemId;
+        final int memoryId;
+
+        Partition(String systemId, int memoryId) {
+            this.systemId = systemId == null ? "" : systemId;
+            this.memoryId = memoryId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Partition)) return false;
+            Partition other = (Partition) o;
+            return memoryId == other.memoryId && systemId.equals(other.systemId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(systemId, memoryId);
+        }
+    }
+}
@@ -28,9 +28,10 @@ public class SentenceExample {
   public static SentenceExample create(AlignedSentence s, int sourceStart, int sourceLength, int memoryId) {
     int targetMin = s.aligned.tokens.length;
     int targetMax = -1;
+    Alignment links = s.links();
     for (int i = sourceStart; i < sourceStart + sourceLength; i++) {
-      int[] a = s.getAlignment()[i];
-      for (int j : a) {
+      for (int k = 0; k < links.count(i); k++) {
+        int j = links.link(i, k);
         if (j < targetMin) targetMin = j;
         if (j > targetMax) targetMax = j;
       }
@@ -0,0 +1,454 @@
+package org.oscii.concordance;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.oscii.lex.Expression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Index an aligned corpus with one suffix array per language, so that examples and
+ * translation frequencies can be found for phrases as well as single words.
+ * <p>
+ * Sentences are held in a {@link CorpusStore}, which encodes those of a language as one
+ * array of token ids, each sentence followed by an end-of-sentence id. The suffix array
+ * orders all positions of that array by the token sequences that start there. All
+ * occurrences of a phrase are then a contiguous range of the suffix array that two binary
+ * searches find. The store and index together take about 12 bytes per token, and
+ * sentence objects are only created for returned examples.
+ * <p>
+ * Translations of single words are counted once, at tally time. Very frequent phrases are
+ * sampled evenly across their range rather than enumerated, and examples are sampled evenly
+ * across the corpus.
+ */
+public class SuffixArrayAlignedCorpus extends AlignedCorpus {
+    private final static Logger log = LogManager.getLogger(SuffixArrayAlignedCorpus.class);
+
+    static final int MAX_SAMPLE = 1000; // positions per stride when sampling a range
+    static final int MAX_SCANNED = 100000; // occurrences considered for examples
+    static final int MAX_COUNTED = 10000; // occurrences of a phrase counted for translation frequencies
+
+    private final CorpusStore store;
+    // language -> suffix array
+    private final Map<String, Index> index = new ConcurrentHashMap<>();
+    // language -> translations of its words
+    private final Map<String, TranslationTable> translations = new ConcurrentHashMap<>();
+
+    public SuffixArrayAlignedCorpus() {
+        this.store = new CorpusStore();
+    }
+
+    /*
+     * A corpus of stored sentences, the suffix arrays of their languages and the
+     * translations of their words.
+     */
+    SuffixArrayAlignedCorpus(CorpusStore store, Map<String, IntColumn> suffixes,
+                             Map<String, TranslationTable> translations) {
+        this.store = store;
+        suffixes.forEach((language, s) -> index.put(language, new Index(store, language, s)));
+        this.translations.putAll(translations);
+    }
+
+    @Override
+    public void read(String path, String sourceLanguage, String targetLanguage, int max) throws IOException {
+        store.read(path, sourceLanguage, targetLanguage, max);
+    }
+
+    @Override
+    public void readAll(String path, Collection<String> languages, int max) throws IOException {
+        store.readAll(path, languages, max);
+    }
+
+    @Override
+    public void tally() {
+        store.trim();
+        List<String> languages = new ArrayList<>();
+        store.languages().forEach(languages::add);
+        languages.parallelStream().forEach(language -> {
+            log.info("Building suffix array for " + language);
+            IntColumn text = store.tokens(language);
+            int[] suffixes = suffixArray(text.array(), store.vocabularySize());
+            index.put(language, new Index(store, language, IntColumn.wrap(suffixes)));
+            log.info("Counting translations for " + language);
+            translations.put(language, TranslationTable.build(store, language));
+        });
+    }
+
+    /*
+     * A corpus of these sentences and more pairs, each the first sentence of a pair with its
+     * translation. It shares the storage of this corpus, which stays searchable but must not
+     * be extended again. Only the suffixes of the new sentences are sorted, and they are
+     * merged into the suffix arrays. Translation tables are not kept, so translations of
+     * single words are then sampled like those of phrases.
+     */
+    SuffixArrayAlignedCorpus extend(Collection<AlignedSentence> pairs) {
+        CorpusStore extended = store.extend();
+        Map<String, Integer> sizes = new HashMap<>();
+        extended.languages().forEach(language -> sizes.put(language, extended.tokens(language).size()));
+        for (AlignedSentence pair : pairs) {
+            extended.add(pair.tokens, pair.aligned.tokens, pair.links(), pair.language, pair.aligned.language);
+        }
+        Map<String, IntColumn> suffixes = new HashMap<>();
+        extended.languages().forEach(language -> {
+            Index previous = index.get(language);
+            int from = previous == null ? 0 : sizes.get(language);
+            suffixes.put(language, IntColumn.wrap(mergeSuffixes(extended.tokens(language),
+                    previous == null ? null : previous.suffixes, from)));
+        });
+        return new SuffixArrayAlignedCorpus(extended, suffixes, Collections.emptyMap());
+    }
+
+    CorpusStore store() {
+        return store;
+    }
+
+    /*
+     * The suffix array of a language, or null.
+     */
+    IntColumn suffixes(String language) {
+        Index forLanguage = index.get(language);
+        return forLanguage == null ? null : forLanguage.suffixes;
+    }
+
+    /*
+     * The translations of the words of a language, or null.
+     */
+    TranslationTable translations(String language) {
+        return translations.get(language);
+    }
+
+    /*
+     * Return a function that takes phrases in another language and returns translation
+     * frequencies. A single word is counted where it is aligned one-to-one, as tallied in
+     * its translation table; a phrase is counted in a sample of its occurrences where its
+     * alignment is consistent, i.e., its aligned target span is aligned to nothing outside
+     * the phrase.
+     */
+    @Override
+    public Function<Expression, Double> translationFrequencies(Expression source) {
+        Index forLanguage = index.get(source.language);
+        if (forLanguage == null) {
+            return AlignedCorpus::zeroFrequency;
+        }
+        int[] range = forLanguage.find(source.text);
+        if (range == null) {
+            return AlignedCorpus::zeroFrequency;
+        }
+        final int length = range[2];
+        TranslationTable table = translations.get(source.language);
+        if (length == 1 && table != null) {
+            final int id = forLanguage.text.get(forLanguage.suffixes.get(range[0]));
+            if (!table.contains(id)) {
+                return AlignedCorpus::zeroFrequency;
+            }
+            return target -> table.frequency(id, target.language, store.id(target.text));
+        }
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        forLanguage.sample(range, MAX_COUNTED, position -> {
+            int sentence = forLanguage.sentence(position);
+            String translation = translation(source.language, sentence, forLanguage.offset(position), length);
+            if (translation != null) {
+                counts.computeIfAbsent(store.alignedLanguage(source.language, sentence), l -> new HashMap<>())
+                        .merge(translation, 1L, Long::sum);
+            }
+            return true;
+        });
+        if (counts.isEmpty()) {
+            return AlignedCorpus::zeroFrequency;
+        }
+        return normalizeByLanguage(counts);
+    }
+
+    /*
+     * The translation of a span: for a single word, the word aligned one-to-one to it; for
+     * a phrase, the consistently aligned target span. Null if there is none.
+     */
+    private String translation(String language, int sentence, int start, int length) {
+        if (length == 1) {
+            int aligned = store.alignedToken(language, sentence, start);
+            return aligned == CorpusStore.END ? null : store.word(aligned);
+        }
+        int[] span = store.alignedSpan(language, sentence, start, length);
+        if (span == null) {
+            return null;
+        }
+        return store.text(store.alignedLanguage(language, sentence), store.alignedSentence(language, sentence),
+                span[0], span[1] + 1);
+    }
+
+    /*
+     * Examples in corpus order. Up to MAX_SCANNED occurrences are considered, spread over
+     * the suffix array range; from those in the target language, a stratified sample of
+     * max (if limited) or the candidate budget is returned.
+     */
+    @Override
+    public List<SentenceExample> examples(String query, String source, String target, String systemId, int max, int memoryId, boolean bLimit) {
+        Index forLanguage = index.get(source);
+        if (forLanguage == null) {
+            return Collections.emptyList();
+        }
+        int[] range = forLanguage.find(query);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        final int length = range[2];
+        IntColumn positions = new IntColumn(Math.min(range[1] - range[0], MAX_SCANNED));
+        forLanguage.sample(range, MAX_SCANNED, position -> {
+            if (store.alignedLanguage(source, forLanguage.sentence(position)).equals(target)) {
+                positions.add(position);
+            }
+            return true;
+        });
+        int[] sorted = Arrays.copyOf(positions.array(), positions.size());
+        Arrays.sort(sorted);
+        int[] sample = stratifiedSample(sorted.length, bLimit ? max : getCandidateBudget(), sampleSeed(query, source, target));
+        List<SentenceExample> examples = new ArrayList<>(sample.length);
+        for (int k : sample) {
+            int sentence = forLanguage.sentence(sorted[k]);
+            examples.add(SentenceExample.create(store.sentence(source, sentence), forLanguage.offset(sorted[k]), length, -1));
+        }
+        return examples;
+    }
+
+    /*
+     * Document frequencies are the numbers of occurrences that the suffix array gives.
+     */
+    @Override
+    double[] lexicalScores(String language, String[] terms, List<SentenceExample> examples) {
+        Index forLanguage = index.get(language);
+        if (forLanguage == null) {
+            return null;
+        }
+        int[] ids = new int[terms.length];
+        int[] frequencies = new int[terms.length];
+        int n = 0;
+        for (String term : terms) {
+            int id = store.id(term);
+            if (id == CorpusStore.END) id = store.id(term.toLowerCase());
+            int[] range = id == CorpusStore.END ? null : forLanguage.find(new int[]{id});
+            if (range != null) {
+                ids[n] = id;
+                frequencies[n++] = range[1] - range[0];
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        final int sentences = store.size(language);
+        final IntColumn text = forLanguage.text;
+        Bm25 bm25 = new Bm25(Arrays.copyOf(ids, n), Arrays.copyOf(frequencies, n), sentences,
+                (double) (text.size() - sentences) / sentences);
+        double[] scores = new double[examples.size()];
+        for (int i = 0; i < scores.length; i++) {
+            int sentence = examples.get(i).sentence.getId();
+            int from = store.start(language, sentence);
+            int to = sentence + 1 < sentences ? store.start(language, sentence + 1) - 1 : text.size() - 1;
+            scores[i] = bm25.score(text, from, to);
+        }
+        return scores;
+    }
+
+    /*
+     * Callback for positions of a phrase; returns false to stop.
+     */
+    interface PositionVisitor {
+        boolean visit(int position);
+    }
+
+    /*
+     * The suffix array of the sentences of one language.
+     */
+    static class Index {
+        final CorpusStore store;
+        final String language;
+        final IntColumn text; // token ids of all sentences, each followed by END
+        final IntColumn suffixes; // positions of text in lexicographic order of their suffixes
+
+        Index(CorpusStore store, String language, IntColumn suffixes) {
+            this.store = store;
+            this.language = language;
+            this.text = store.tokens(language);
+            this.suffixes = suffixes;
+        }
+
+        /*
+         * The sentence that contains a position of text.
+         */
+        int sentence(int position) {
+            return store.sentenceAt(language, position);
+        }
+
+        /*
+         * The token index of a position of text within its sentence.
+         */
+        int offset(int position) {
+            return position - store.start(language, sentence(position));
+        }
+
+        /*
+         * The range [from, to) of the suffix array that starts with a space-separated phrase
+         * and the number of tokens in it, or null if the phrase does not occur.
+         */
+        int[] find(String phrase) {
+            String[] tokens = phrase.trim().split("\\s+");
+            int[] query = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                int id = store.id(tokens[i]);
+                if (id == CorpusStore.END) return null;
+                query[i] = id;
+            }
+            return find(query);
+        }
+
+        /*
+         * The range [from, to) of the suffix array that starts with a sequence of ids and
+         * its length, or null if it does not occur.
+         */
+        int[] find(int[] query) {
+            int from = bound(query, false);
+            int to = bound(query, true);
+            return from < to ? new int[]{from, to, query.length} : null;
+        }
+
+        /*
+         * The first suffix that is not less than the query, or, if after, not a continuation of it.
+         */
+        private int bound(int[] query, boolean after) {
+            int lo = 0, hi = suffixes.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(suffixes.get(mid), query);
+                if (c < 0 || (after && c == 0)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Compare the suffix at a position to a query, 0 if the suffix starts with the query
+        private int compare(int position, int[] query) {
+            for (int j = 0; j < query.length; j++) {
+                int t = text.get(position + j); // text ends with END, which differs from all query ids
+                if (t != query[j]) return t < query[j] ? -1 : 1;
+            }
+            return 0;
+        }
+
+        /*
+         * Visit up to limit positions of a range, spread evenly over it first: all positions
+         * with stride s, offset 0, then offset 1, etc., where s is chosen for MAX_SAMPLE
+         * positions per offset. The order is deterministic.
+         */
+        void sample(int[] range, int limit, PositionVisitor visitor) {
+            final int from = range[0], count = range[1] - range[0];
+            final int stride = Math.max(1, count / MAX_SAMPLE);
+            int visited = 0;
+            for (int offset = 0; offset < stride; offset++) {
+                for (int k = offset; k < count; k += stride) {
+                    if (visited++ == limit || !visitor.visit(suffixes.get(from + k))) return;
+                }
+            }
+        }
+    }
+
+    /*
+     * Insert the suffixes of a text that start at from or later into the suffix array of the
+     * text before from (null if from is 0). Suffixes are compared up to the end of their
+     * sentence, which keeps every phrase a contiguous range as a full sort does, so the
+     * array may be extended again. O(n + d log n) for d new positions.
+     */
+    static int[] mergeSuffixes(IntColumn text, IntColumn suffixes, int from) {
+        final int previous = suffixes == null ? 0 : suffixes.size();
+        int[] added = IntStream.range(from, text.size()).boxed()
+                .sorted((a, b) -> compareSuffixes(text, a, b))
+                .mapToInt(p -> p).toArray();
+        int[] merged = new int[previous + added.length];
+        int copied = 0, size = 0;
+        for (int position : added) {
+            // The first previous suffix after this one, at or after the last insertion
+            int lo = copied, hi = previous;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareSuffixes(text, suffixes.get(mid), position) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo > copied) {
+                System.arraycopy(suffixes.array(), copied, merged, size, lo - copied);
+                size += lo - copied;
+            }
+            merged[size++] = position;
+            copied = lo;
+        }
+        if (copied < previous) {
+            System.arraycopy(suffixes.array(), copied, merged, size, previous - copied);
+        }
+        return merged;
+    }
+
+    // Order of the suffixes at two positions of a text, up to the end of their sentences
+    private static int compareSuffixes(IntColumn text, int a, int b) {
+        while (true) {
+            int x = text.get(a++), y = text.get(b++);
+            if (x != y) return Integer.compare(x, y);
+            if (x == CorpusStore.END) return 0;
+        }
+    }
+
+    /*
+     * Suffix array of a text with ids in [0, alphabet), by prefix doubling: after each
+     * round, suffixes are ordered by their first 2k ids, using a radix sort on the pair of
+     * ranks of their two halves. O(n log n) time with four int arrays of working memory.
+     */
+    static int[] suffixArray(int[] text, int alphabet) {
+        final int n = text.length;
+        int[] sa = new int[n];
+        int[] rank = new int[n];
+        int[] tmp = new int[n];
+        int[] count = new int[Math.max(alphabet, n) + 1];
+        for (int t : text) count[t + 1]++;
+        for (int i = 1; i < count.length; i++) count[i] += count[i - 1];
+        for (int i = 0; i < n; i++) sa[count[text[i]]++] = i;
+        System.arraycopy(text, 0, rank, 0, n);
+        int classes = alphabet;
+        for (int k = 1; n > 0; k <<= 1) {
+            // Order by the second half: suffixes without one come first
+            int p = 0;
+            for (int i = n - k; i < n; i++) if (i >= 0) tmp[p++] = i;
+            for (int j = 0; j < n; j++) if (sa[j] >= k) tmp[p++] = sa[j] - k;
+            // Stable counting sort by the first half
+            Arrays.fill(count, 0, classes + 1, 0);
+            for (int i = 0; i < n; i++) count[rank[i] + 1]++;
+            for (int i = 1; i <= classes; i++) count[i] += count[i - 1];
+            for (int j = 0; j < n; j++) sa[count[rank[tmp[j]]]++] = tmp[j];
+            // New ranks: equal only if both halves are equal
+            tmp[sa[0]] = 0;
+            classes = 1;
+            for (int j = 1; j < n; j++) {
+                int a = sa[j - 1], b = sa[j];
+                boolean same = rank[a] == rank[b]
+                        && (a + k < n ? rank[a + k] : -1) == (b + k < n ? rank[b + k] : -1);
+                tmp[b] = same ? classes - 1 : classes++;
+            }
+            int[] swap = rank;
+            rank = tmp;
+            tmp = swap;
+            if (classes == n) break;
+        }
+        return sa;
+    }
+}
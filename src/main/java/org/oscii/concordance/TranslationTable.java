@@ -0,0 +1,169 @@
+package org.oscii.concordance;
+
+import gnu.trove.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts of the one-to-one aligned translations of the words of one language, in
+ * compressed sparse rows. The row of source word s holds one segment per target language,
+ * segments[rows[s]] to segments[rows[s+1]-1], each with the sum of its counts. The
+ * entries of segment g are entries[segmentStarts[g]] to entries[segmentStarts[g+1]-1],
+ * sorted by target word id. Relative frequencies are then found without allocation.
+ * <p>
+ * The table is held in columns, so that it can be written to and mapped from an index file.
+ */
+final class TranslationTable {
+    private static final int LANGUAGE_BITS = 5;
+    private static final int TARGET_BITS = 32 - LANGUAGE_BITS;
+
+    private final List<String> languages; // target languages, by index
+    final IntColumn rows;
+    final IntColumn segmentLanguages;
+    final IntColumn segmentStarts;
+    final IntColumn segmentTotals;
+    final IntColumn targets;
+    final IntColumn counts;
+
+    TranslationTable(List<String> languages, IntColumn rows, IntColumn segmentLanguages, IntColumn segmentStarts,
+                     IntColumn segmentTotals, IntColumn targets, IntColumn counts) {
+        this.languages = languages;
+        this.rows = rows;
+        this.segmentLanguages = segmentLanguages;
+        this.segmentStarts = segmentStarts;
+        this.segmentTotals = segmentTotals;
+        this.targets = targets;
+        this.counts = counts;
+    }
+
+    /**
+     * Count the words aligned one-to-one to each word of sentences, all encoded by a
+     * vocabulary that contains them.
+     *
+     * @param languages the languages of the aligned sentences
+     */
+    static TranslationTable build(List<AlignedSentence> sentences, Vocabulary vocabulary, List<String> languages) {
+        checkSize(vocabulary, languages);
+        TLongIntHashMap pairs = new TLongIntHashMap();
+        for (AlignedSentence s : sentences) {
+            Alignment links = s.links();
+            if (links == null || s.aligned == null) continue;
+            int language = languages.indexOf(s.aligned.language);
+            if (language < 0) continue;
+            for (int i = 0; i < s.tokens.length; i++) {
+                int j = links.oneToOne(i);
+                if (j < 0) continue;
+                pairs.adjustOrPutValue(key(vocabulary.id(s.tokens[i]), language, vocabulary.id(s.aligned.tokens[j])), 1, 1);
+            }
+        }
+        return fromCounts(pairs, vocabulary.size(), languages);
+    }
+
+    /**
+     * Count the words aligned one-to-one to each word of the sentences of a language in a
+     * store. Target languages are indexed as in the store.
+     */
+    static TranslationTable build(CorpusStore store, String language) {
+        List<String> languages = new ArrayList<>();
+        store.languages().forEach(languages::add);
+        checkSize(store.vocabulary(), languages);
+        CorpusStore.Column column = store.column(language);
+        TLongIntHashMap pairs = new TLongIntHashMap();
+        for (int s = 0; s < column.size(); s++) {
+            int alignedLanguage = column.alignedLanguages.get(s);
+            int start = column.starts.get(s);
+            for (int i = 0; column.tokens.get(start + i) != CorpusStore.END; i++) {
+                int aligned = store.alignedToken(language, s, i);
+                if (aligned == CorpusStore.END) continue;
+                pairs.adjustOrPutValue(key(column.tokens.get(start + i), alignedLanguage, aligned), 1, 1);
+            }
+        }
+        return fromCounts(pairs, store.vocabularySize(), languages);
+    }
+
+    private static void checkSize(Vocabulary vocabulary, List<String> languages) {
+        if (languages.size() > 1 << LANGUAGE_BITS || vocabulary.size() > 1 << TARGET_BITS) {
+            throw new IllegalArgumentException("Too many languages or words for a translation table");
+        }
+    }
+
+    // (source, language, target), packed in that order of significance
+    private static long key(int source, int language, int target) {
+        return ((long) source << 32) | ((long) language << TARGET_BITS) | target;
+    }
+
+    private static TranslationTable fromCounts(TLongIntHashMap pairs, int vocabularySize, List<String> languages) {
+        long[] keys = pairs.keys();
+        Arrays.sort(keys);
+
+        int[] rows = new int[vocabularySize + 1];
+        int[] segmentLanguages = new int[keys.length];
+        int[] segmentStarts = new int[keys.length + 1];
+        int[] segmentTotals = new int[keys.length];
+        int[] targets = new int[keys.length];
+        int[] counts = new int[keys.length];
+        int segments = 0;
+        long previous = -1; // source and language of the last segment
+        for (int e = 0; e < keys.length; e++) {
+            long segment = keys[e] >>> TARGET_BITS;
+            if (segment != previous) {
+                rows[(int) (keys[e] >>> 32) + 1]++;
+                segmentLanguages[segments] = (int) segment & ((1 << LANGUAGE_BITS) - 1);
+                segmentStarts[segments++] = e;
+                previous = segment;
+            }
+            targets[e] = (int) keys[e] & ((1 << TARGET_BITS) - 1);
+            counts[e] = pairs.get(keys[e]);
+            segmentTotals[segments - 1] += counts[e];
+        }
+        segmentStarts[segments] = keys.length;
+        for (int s = 0; s + 1 < rows.length; s++) rows[s + 1] += rows[s];
+        return new TranslationTable(languages, IntColumn.wrap(rows),
+                IntColumn.wrap(Arrays.copyOf(segmentLanguages, segments)),
+                IntColumn.wrap(Arrays.copyOf(segmentStarts, segments + 1)),
+                IntColumn.wrap(Arrays.copyOf(segmentTotals, segments)),
+                IntColumn.wrap(targets), IntColumn.wrap(counts));
+    }
+
+    /*
+     * All columns, in the order of the constructor.
+     */
+    List<IntColumn> all() {
+        return Arrays.asList(rows, segmentLanguages, segmentStarts, segmentTotals, targets, counts);
+    }
+
+    /**
+     * Whether a word has any translation.
+     */
+    boolean contains(int source) {
+        return source > 0 && source + 1 < rows.size() && rows.get(source) < rows.get(source + 1);
+    }
+
+    /**
+     * The fraction of the translations of a source word into a language that are a target
+     * word, or 0.
+     */
+    double frequency(int source, String language, int target) {
+        if (!contains(source)) {
+            return 0.0;
+        }
+        int l = languages.indexOf(language);
+        for (int g = rows.get(source); g < rows.get(source + 1); g++) {
+            if (segmentLanguages.get(g) == l) {
+                int end = segmentStarts.get(g + 1);
+                int e = targets.lowerBound(segmentStarts.get(g), end, target);
+                return e == end || targets.get(e) != target ? 0.0 : (double) counts.get(e) / segmentTotals.get(g);
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * The number of (source, target language, target) entries.
+     */
+    int size() {
+        return targets.size();
+    }
+}
@@ -0,0 +1,26 @@
+package org.oscii.concordance;
+
+/**
+ * The words of a corpus, numbered from 1; id 0 marks the end of a sentence.
+ */
+interface Vocabulary {
+    /**
+     * The id of a word, or 0 if it does not occur.
+     */
+    int id(String word);
+
+    /**
+     * The word of an id.
+     */
+    String word(int id);
+
+    /**
+     * One more than the largest id.
+     */
+    int size();
+
+    /**
+     * The id of a word, which is added if it does not occur.
+     */
+    int add(String word);
+}
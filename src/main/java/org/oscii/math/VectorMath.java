@@ -9,6 +9,8 @@ import no.uib.cipr.matrix.Vector;
  */
 public final class VectorMath {
 
+    private static final int DOT_BLOCK_FLOATS = 8192; // 32KB, about an L1 data cache
+
     private VectorMath() {
     }
 
@@ -62,4 +64,55 @@ public final class VectorMath {
         for (int i = 0; i < v1.length; ++i) v1[i] *= scalar;
     }
 
+    /**
+     * Dot product of a[aOffset, aOffset + length) and b[bOffset, bOffset + length). Four
+     * independent sums let the JIT pipeline and vectorize the loop.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Scale v[offset, offset + length) to unit length and return its former norm. Zero vectors
+     * are left unchanged.
+     */
+    public static float normalize(float[] v, int offset, int length) {
+        float norm = (float) Math.sqrt(dot(v, offset, v, offset, length));
+        if (norm > 0f) {
+            float scale = 1f / norm;
+            for (int i = offset; i < offset + length; i++) v[i] *= scale;
+        }
+        return norm;
+    }
+
+    /**
+     * Dot products between the m rows of a and the n rows of b, which are row-major matrices
+     * of the given dimension. Returns the row-major m x n product of a and b transposed.
+     * Rows of b are taken in blocks that stay in cache while all rows of a pass over them.
+     */
+    public static float[] dotProducts(float[] a, int m, float[] b, int n, int dimension) {
+        if (a.length < m * dimension || b.length < n * dimension) throw new IllegalArgumentException();
+        float[] c = new float[m * n];
+        final int blockRows = Math.max(1, DOT_BLOCK_FLOATS / Math.max(1, dimension));
+        for (int j0 = 0; j0 < n; j0 += blockRows) {
+            final int j1 = Math.min(n, j0 + blockRows);
+            for (int i = 0; i < m; i++) {
+                for (int j = j0; j < j1; j++) {
+                    c[i * n + j] = dot(a, i * dimension, b, j * dimension, dimension);
+                }
+            }
+        }
+        return c;
+    }
 }
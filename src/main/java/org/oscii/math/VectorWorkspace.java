@@ -0,0 +1,105 @@
+package org.oscii.math;
+
+import java.util.Arrays;
+
+/**
+ * Reusable float buffers for vector arithmetic, one workspace per thread, so that hot
+ * loops compute means and sums without allocating vectors. Buffers are taken in stack
+ * order and given back by releasing to a mark, which lets calls nest:
+ * <pre>
+ *     VectorWorkspace ws = VectorWorkspace.get();
+ *     int mark = ws.mark();
+ *     try {
+ *         float[] sum = ws.take(dimension);
+ *         ...
+ *     } finally {
+ *         ws.release(mark);
+ *     }
+ * </pre>
+ * A buffer must not be used after its release or passed to another thread.
+ */
+public final class VectorWorkspace {
+    private static final ThreadLocal<VectorWorkspace> LOCAL = ThreadLocal.withInitial(VectorWorkspace::new);
+
+    private float[][] buffers = new float[4][];
+    private int top; // buffers below top are taken
+
+    private VectorWorkspace() {
+    }
+
+    /**
+     * The workspace of the current thread.
+     */
+    public static VectorWorkspace get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * The number of buffers taken, to release them later.
+     */
+    public int mark() {
+        return top;
+    }
+
+    /**
+     * Give back all buffers taken since a mark.
+     */
+    public void release(int mark) {
+        if (mark < 0 || mark > top) throw new IllegalArgumentException("Invalid mark " + mark);
+        top = mark;
+    }
+
+    /**
+     * A zeroed buffer of the given length. A buffer of another length is replaced, which
+     * only allocates when the dimension changes.
+     */
+    public float[] take(int length) {
+        if (top == buffers.length) {
+            buffers = Arrays.copyOf(buffers, 2 * top);
+        }
+        float[] buffer = buffers[top];
+        if (buffer == null || buffer.length != length) {
+            buffer = new float[length];
+            buffers[top] = buffer;
+        } else {
+            Arrays.fill(buffer, 0f);
+        }
+        top++;
+        return buffer;
+    }
+
+    /**
+     * dest += v
+     */
+    public static void add(float[] dest, float[] v) {
+        for (int i = 0; i < dest.length; i++) dest[i] += v[i];
+    }
+
+    /**
+     * dest += scale * v
+     */
+    public static void add(float[] dest, float scale, float[] v) {
+        for (int i = 0; i < dest.length; i++) dest[i] += scale * v[i];
+    }
+
+    /**
+     * v *= scale
+     */
+    public static void scale(float[] v, float scale) {
+        for (int i = 0; i < v.length; i++) v[i] *= scale;
+    }
+
+    /**
+     * Dot product of vectors of the same length.
+     */
+    public static float dot(float[] a, float[] b) {
+        return VectorMath.dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Scale v to unit length and return its former norm; zero vectors are left unchanged.
+     */
+    public static float normalize(float[] v) {
+        return VectorMath.normalize(v, 0, v.length);
+    }
+}
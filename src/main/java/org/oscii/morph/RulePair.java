@@ -2,7 +2,9 @@ package org.oscii.morph;
 
 import com.google.gson.annotations.Expose;
 import no.uib.cipr.matrix.Vector;
+import org.oscii.math.VectorWorkspace;
 import org.oscii.neural.EmbeddingContainer;
+import org.oscii.neural.FloatVector;
 
 /**
  * Two words for which the input can be transformed into the output.
@@ -12,7 +14,7 @@ public class RulePair {
     final String input;
     @Expose
     final String output;
-    Vector direction;
+    float[] direction;
 
     public RulePair(String input, String output) {
         assert input != null && output != null;
@@ -24,11 +26,24 @@ public class RulePair {
      * Get and cache the direction of a word pair.
      */
     public Vector getDirection(EmbeddingContainer embeddings) {
+        float[] d = direction(embeddings);
+        return d == null ? null : new FloatVector(d, false);
+    }
+
+    /*
+     * The cached direction, or null if either word is not embedded.
+     */
+    float[] direction(EmbeddingContainer embeddings) {
         if (direction == null) {
-            Vector in = embeddings.getRawVector(input);
-            Vector out = embeddings.getRawVector(output);
-            if (in != null && out != null) {
-                direction = out.copy().add(-1, in);
+            int in = embeddings.row(input);
+            int out = embeddings.row(output);
+            if (in >= 0 && out >= 0) {
+                VectorWorkspace workspace = VectorWorkspace.get();
+                int mark = workspace.mark();
+                float[] d = embeddings.decode(out, new float[embeddings.dimension()]);
+                VectorWorkspace.add(d, -1f, embeddings.decode(in, workspace.take(embeddings.dimension())));
+                workspace.release(mark);
+                direction = d;
             }
         }
         return direction;
@@ -4,6 +4,7 @@ import com.google.gson.annotations.Expose;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.oscii.math.VectorMath;
+import org.oscii.math.VectorWorkspace;
 import org.oscii.neural.EmbeddingContainer;
 import org.oscii.neural.FloatVector;
 
@@ -54,10 +55,6 @@ public class RuleScored {
     @Expose
     List<Transformation> transformations;
 
-    // Place to add two vectors together, which drastically reduces object creation
-    // Note: only one thread can call scorePairAndDirection for this rule at a time.
-    FloatVector added;
-
     public RuleScored(Rule rule, List<RuleLexicalized> support) {
         this.rule = rule;
         this.support = support;
@@ -81,7 +78,6 @@ public class RuleScored {
         }
 
         log.debug("Score {} pairs for {}", sample.size(), rule.toString());
-        added = new FloatVector(embeddings.dimension());
         hits = new HashMap<>();
         for (RuleLexicalized r : sample) {
             List<Transformation> hit = new ArrayList<>(sample.size());
@@ -158,15 +154,23 @@ public class RuleScored {
     }
 
     // Score a pair of related words using a direction defined by another pair of words with the same relation.
+    // Vectors are added in buffers of this thread's workspace, which drastically reduces object creation.
     private Transformation scorePairAndDirection(RulePair r, RulePair d, EmbeddingContainer vs, int rankThreshold) {
-        added.zero();
-        added.add(d.getDirection(vs));
-        added.add(vs.getRawVector(r.input));
-        double cosine = VectorMath.cosineSimilarity(added, vs.getRawVector(r.output));
-        List<String> neighbors = vs.neighbors(added, rankThreshold);
-        int index = neighbors.indexOf(r.output);
-        int rank = (index == -1) ? rankThreshold + 1 : index + 1;
-        return new Transformation(r, d, rank, cosine);
+        VectorWorkspace workspace = VectorWorkspace.get();
+        int mark = workspace.mark();
+        try {
+            float[] added = workspace.take(vs.dimension());
+            float[] word = workspace.take(vs.dimension());
+            VectorWorkspace.add(added, d.direction(vs));
+            VectorWorkspace.add(added, vs.decode(vs.row(r.input), word));
+            double cosine = VectorMath.cosineSimilarity(added, vs.decode(vs.row(r.output), word));
+            List<String> neighbors = vs.neighbors(new FloatVector(added, false), rankThreshold);
+            int index = neighbors.indexOf(r.output);
+            int rank = (index == -1) ? rankThreshold + 1 : index + 1;
+            return new Transformation(r, d, rank, cosine);
+        } finally {
+            workspace.release(mark);
+        }
     }
 
     public String toString() {
@@ -0,0 +1,145 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Reads the binary output format of the word2vec C reference implementation.
+ * <p>
+ * A first pass over the memory-mapped file finds where each record starts, touching
+ * only the bytes of the words. Words are then decoded as UTF-8 and vectors copied into
+ * a {@link MatrixStorage} in parallel, or into a {@link HalfPrecisionStorage} for files
+ * written with half-precision values, whose header ends in "fp16".
+ */
+class BinFileReader {
+    private static final int ROWS_PER_TASK = 4096;
+
+    private final File file;
+    private final ByteOrder byteOrder;
+    private final MappedFile mapped;
+
+    private BinFileReader(File file, ByteOrder byteOrder) throws IOException {
+        this.file = file;
+        this.byteOrder = byteOrder;
+        this.mapped = MappedFile.map(file);
+    }
+
+    /**
+     * Read a model, restricted to a vocabulary unless vocab is null.
+     */
+    static EmbeddingContainer read(File file, ByteOrder byteOrder, Set<String> vocab, boolean doublePrec)
+            throws IOException {
+        return new BinFileReader(file, byteOrder).read(vocab, doublePrec);
+    }
+
+    private EmbeddingContainer read(Set<String> vocab, boolean doublePrec) throws IOException {
+        final long size = mapped.size();
+        // header: "<vocabSize> <layerSize>[ fp16]\n"
+        long pos = 0;
+        while (pos < size && mapped.get(pos) != '\n') pos++;
+        String[] header = decode(mapped.views(byteOrder), 0, (int) pos).trim().split(" ");
+        final boolean half = header.length == 3 && header[2].equals("fp16");
+        if (header.length != 2 && !half) throw new IOException("Invalid header in " + file);
+        final int vocabSize = Integer.parseInt(header[0]);
+        final int layerSize = Integer.parseInt(header[1]);
+        final long vectorBytes = (half ? 2L : 4L) * layerSize;
+
+        // first pass: where each word starts and how long it is
+        final long[] starts = new long[vocabSize];
+        final int[] lengths = new int[vocabSize];
+        pos++;
+        for (int row = 0; row < vocabSize; row++) {
+            // ignore newlines in front of words (some binary files have newline, some don't)
+            while (pos < size && mapped.get(pos) == '\n') pos++;
+            starts[row] = pos;
+            while (pos < size && mapped.get(pos) != ' ') pos++;
+            lengths[row] = (int) (pos - starts[row]);
+            pos += 1 + vectorBytes;
+            if (pos > size) throw new IOException(String.format("Truncated %s after %d of %d words", file, row, vocabSize));
+        }
+
+        final String[] words = new String[vocabSize];
+        forEachRow(vocabSize, (views, row) -> words[row] = decode(views, starts[row], lengths[row]));
+
+        // keep[i] is the row of the i-th word that is kept
+        final int[] keep = vocab == null
+                ? IntStream.range(0, vocabSize).toArray()
+                : IntStream.range(0, vocabSize).filter(row -> vocab.contains(words[row])).toArray();
+        final String[] kept = new String[keep.length];
+        for (int i = 0; i < keep.length; i++) {
+            kept[i] = words[keep[i]];
+        }
+
+        if (doublePrec) {
+            final Vector[] vectors = new Vector[keep.length];
+            forEachRow(keep.length, (views, i) -> {
+                float[] floats = new float[layerSize];
+                if (half) {
+                    short[] halves = new short[layerSize];
+                    readVector(views, starts[keep[i]] + lengths[keep[i]] + 1, halves, 0, layerSize);
+                    for (int d = 0; d < layerSize; d++) {
+                        floats[d] = HalfPrecisionStorage.toFloat(halves[d]);
+                    }
+                } else {
+                    readVector(views, starts[keep[i]] + lengths[keep[i]] + 1, floats, 0, layerSize);
+                }
+                DenseVector vector = new DenseVector(layerSize);
+                for (int d = 0; d < layerSize; d++) {
+                    vector.set(d, floats[d]);
+                }
+                vectors[i] = vector;
+            });
+            return new EmbeddingContainer(kept, vectors);
+        }
+        if (half) {
+            final HalfPrecisionStorage storage = new HalfPrecisionStorage(keep.length, layerSize);
+            forEachRow(keep.length, (views, i) ->
+                    readVector(views, starts[keep[i]] + lengths[keep[i]] + 1, storage.block(i), storage.offset(i), layerSize));
+            storage.computeNorms();
+            return new EmbeddingContainer(kept, storage);
+        }
+        final MatrixStorage storage = new MatrixStorage(keep.length, layerSize);
+        forEachRow(keep.length, (views, i) ->
+                readVector(views, starts[keep[i]] + lengths[keep[i]] + 1, storage.block(i), storage.offset(i), layerSize));
+        storage.computeNorms();
+        return new EmbeddingContainer(kept, storage);
+    }
+
+    private static String decode(ByteBuffer[] views, long start, int length) {
+        byte[] bytes = new byte[length];
+        MappedFile.at(views, start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readVector(ByteBuffer[] views, long start, float[] dest, int offset, int length) {
+        MappedFile.at(views, start).asFloatBuffer().get(dest, offset, length);
+    }
+
+    private static void readVector(ByteBuffer[] views, long start, short[] dest, int offset, int length) {
+        MappedFile.at(views, start).asShortBuffer().get(dest, offset, length);
+    }
+
+    private interface RowTask {
+        void apply(ByteBuffer[] views, int row);
+    }
+
+    /*
+     * Run a task for all rows in parallel; each task gets its own views of the file.
+     */
+    private void forEachRow(int rows, RowTask task) {
+        IntStream.range(0, (rows + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(t -> {
+            ByteBuffer[] views = mapped.views(byteOrder);
+            for (int row = t * ROWS_PER_TASK; row < Math.min(rows, (t + 1) * ROWS_PER_TASK); row++) {
+                task.apply(views, row);
+            }
+        });
+    }
+}
@@ -0,0 +1,245 @@
+package org.oscii.neural;
+
+import java.util.Arrays;
+
+/**
+ * Maps context text to the embedding rows of its tokens without creating strings, sets or
+ * arrays per call. Use the instance of the current thread, which keeps its buffers.
+ * <p>
+ * {@link #split(CharSequence)} tokenizes as
+ * {@code text.replaceAll("\\p{P}", "").split("\\s+")} does, and {@link #reduce} and
+ * {@link #bagOfWords} select the same tokens as {@link Word2VecManager#reduceTokens} and
+ * {@link Word2VecManager#getBagOfWords}, so that the mean of the rows equals
+ * {@link EmbeddingContainer#getMean(String[])} of the selected tokens.
+ */
+final class ContextTokenizer {
+    private static final ThreadLocal<ContextTokenizer> LOCAL = ThreadLocal.withInitial(ContextTokenizer::new);
+
+    // Bit c is set if BMP character c is in Unicode category P
+    private static final long[] PUNCTUATION = new long[1 << 10];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (isPunctuationType(Character.getType(c))) PUNCTUATION[c >>> 6] |= 1L << c;
+        }
+    }
+
+    private final StringBuilder text = new StringBuilder(); // tokens, without punctuation
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int[] hashes = new int[64];
+    private int size; // number of tokens
+    private int[] seen = new int[128]; // open-addressing set of token index + 1 (0 if empty)
+    private int seenMask;
+    private int[] rows = new int[64];
+
+    private ContextTokenizer() {
+    }
+
+    /**
+     * The tokenizer of the current thread.
+     */
+    static ContextTokenizer get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Remove punctuation from s and split it at runs of whitespace, keeping a leading empty
+     * token and dropping trailing ones as String.split() does.
+     */
+    ContextTokenizer split(CharSequence s) {
+        text.setLength(0);
+        for (int i = 0; i < s.length(); ) {
+            final char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // Regex matching is by code point, so a surrogate pair is removed or kept whole
+                if (!isPunctuationType(Character.getType(Character.toCodePoint(c, s.charAt(i + 1))))) {
+                    text.append(c).append(s.charAt(i + 1));
+                }
+                i += 2;
+            } else {
+                if ((PUNCTUATION[c >>> 6] & (1L << c)) == 0) text.append(c);
+                i++;
+            }
+        }
+        size = 0;
+        final int length = text.length();
+        int start = 0;
+        boolean matched = false;
+        for (int i = 0; i < length; ) {
+            if (!isWhitespace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (i < length && isWhitespace(text.charAt(i))) i++;
+            add(start, end);
+            start = i;
+            matched = true;
+        }
+        add(start, length);
+        if (matched) {
+            while (size > 0 && starts[size - 1] == ends[size - 1]) size--;
+        }
+        return this;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the tokens, which is the same for texts that differ only in
+     * punctuation and runs of whitespace.
+     */
+    long fingerprint() {
+        long h = 0xcbf29ce484222325L;
+        for (int t = 0; t < size; t++) {
+            for (int i = starts[t]; i < ends[t]; i++) {
+                h = (h ^ text.charAt(i)) * 0x100000001b3L;
+            }
+            h = (h ^ ' ') * 0x100000001b3L; // tokens never contain whitespace from split()
+        }
+        return h;
+    }
+
+    /**
+     * Take tokens that are already split.
+     */
+    ContextTokenizer tokens(String[] tokens) {
+        text.setLength(0);
+        size = 0;
+        for (String token : tokens) {
+            int start = text.length();
+            text.append(token);
+            add(start, text.length());
+        }
+        return this;
+    }
+
+    /**
+     * Number of tokens.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Select tokens as {@link Word2VecManager#reduceTokens} does and look up their rows.
+     *
+     * @return the number of rows found, which are the first entries of {@link #rows()}
+     */
+    int reduce(EmbeddingContainer model, int minSegLength, int minTokLength, int maxSegLength) {
+        if (size < minSegLength) return lookupAll(model);
+        clearSeen(maxSegLength);
+        int distinct = 0, found = 0;
+        for (int i = 0; i < size; i++) {
+            if (ends[i] - starts[i] >= minTokLength && insert(i)) {
+                distinct++;
+                found = lookup(model, i, found);
+            }
+            if (distinct >= maxSegLength) break;
+        }
+        return distinct == 0 ? lookupAll(model) : found;
+    }
+
+    /**
+     * Look up the rows of the distinct tokens, as {@link Word2VecManager#getBagOfWords} selects them.
+     *
+     * @return the number of rows found, which are the first entries of {@link #rows()}
+     */
+    int bagOfWords(EmbeddingContainer model) {
+        clearSeen(size);
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (insert(i)) found = lookup(model, i, found);
+        }
+        return found;
+    }
+
+    /**
+     * Rows found by the last call to reduce() or bagOfWords(). The buffer is reused.
+     */
+    int[] rows() {
+        return rows;
+    }
+
+    private int lookupAll(EmbeddingContainer model) {
+        int found = 0;
+        for (int i = 0; i < size; i++) found = lookup(model, i, found);
+        return found;
+    }
+
+    private int lookup(EmbeddingContainer model, int token, int found) {
+        int row = model.row(text, starts[token], ends[token]);
+        if (row < 0) return found;
+        rows[found] = row;
+        return found + 1;
+    }
+
+    private void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * size);
+            ends = Arrays.copyOf(ends, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+            rows = Arrays.copyOf(rows, 2 * size);
+        }
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        hashes[size] = h;
+        size++;
+    }
+
+    // Empty the seen-set, making room for up to n distinct tokens at most half full
+    private void clearSeen(int n) {
+        int capacity = Integer.highestOneBit(Math.max(2, Math.min(n, size)) * 2 - 1) << 1;
+        if (seen.length < capacity) {
+            seen = new int[capacity];
+        } else {
+            Arrays.fill(seen, 0, capacity, 0);
+        }
+        seenMask = capacity - 1;
+    }
+
+    // Add a token to the seen-set, returning false if an equal token is already in it
+    private boolean insert(int token) {
+        final int h = hashes[token];
+        int slot = VocabularyIndex.mix(h) & seenMask;
+        for (; seen[slot] != 0; slot = (slot + 1) & seenMask) {
+            int other = seen[slot] - 1;
+            if (hashes[other] == h && sameToken(other, token)) return false;
+        }
+        seen[slot] = token + 1;
+        return true;
+    }
+
+    private boolean sameToken(int a, int b) {
+        final int length = ends[a] - starts[a];
+        if (length != ends[b] - starts[b]) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(starts[a] + i) != text.charAt(starts[b] + i)) return false;
+        }
+        return true;
+    }
+
+    // \s in java.util.regex
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    // \p{P} in java.util.regex
+    private static boolean isPunctuationType(int type) {
+        switch (type) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
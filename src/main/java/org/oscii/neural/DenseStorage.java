@@ -0,0 +1,84 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Full-precision storage: one FloatVector (or DenseVector) per row.
+ */
+class DenseStorage implements VectorStorage {
+    private final Vector[] vectors;
+    private final double[] norms;
+    private final int dimension;
+
+    DenseStorage(Vector[] vectors) {
+        this.vectors = vectors;
+        this.dimension = vectors.length == 0 ? 0 : vectors[0].size();
+        this.norms = new double[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            norms[i] = vectors[i].norm(Vector.Norm.Two);
+        }
+    }
+
+    @Override
+    public int rows() {
+        return vectors.length;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public Vector get(int row) {
+        return vectors[row];
+    }
+
+    @Override
+    public void addTo(int row, float[] dest) {
+        Vector v = vectors[row];
+        if (v instanceof FloatVector) {
+            float[] data = ((FloatVector) v).getData();
+            for (int i = 0; i < dimension; i++) {
+                dest[i] += data[i];
+            }
+        } else {
+            for (int i = 0; i < dimension; i++) {
+                dest[i] += v.get(i);
+            }
+        }
+    }
+
+    @Override
+    public double norm(int row) {
+        return norms[row];
+    }
+
+    @Override
+    public IntToDoubleFunction dots(float[] query) {
+        return row -> {
+            Vector v = vectors[row];
+            if (v instanceof FloatVector) {
+                float[] data = ((FloatVector) v).getData();
+                float dot = 0;
+                for (int i = 0; i < dimension; i++) {
+                    dot += query[i] * data[i];
+                }
+                return dot;
+            }
+            double dot = 0;
+            for (int i = 0; i < dimension; i++) {
+                dot += query[i] * v.get(i);
+            }
+            return dot;
+        };
+    }
+
+    @Override
+    public long bytes() {
+        long perElement = vectors.length > 0 && vectors[0] instanceof FloatVector ? 4 : 8;
+        return vectors.length * (perElement * dimension + 32);
+    }
+}
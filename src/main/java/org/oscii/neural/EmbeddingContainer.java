@@ -1,44 +1,55 @@
 package org.oscii.neural;
 
-import com.eatthepath.jvptree.VPTree;
-import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.oscii.math.VectorMath;
+import org.oscii.math.VectorWorkspace;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.function.IntToDoubleFunction;
 
 import static java.util.stream.Collectors.toList;
 
 /**
  * A simple container for a word embedding model.
  * <p>
- * V is the vector type, such as float[] or DenseVector
+ * Vectors are held in full precision by default, or in one of the compressed
+ * {@link Storage} modes.
  */
 public class EmbeddingContainer {
 
-    private final static long ONE_GB = 1024 * 1024 * 1024;
+    private final static Logger logger = LogManager.getLogger(EmbeddingContainer.class);
+
+    /**
+     * How vectors are stored.
+     */
+    public enum Storage {
+        FLOAT, // 4 bytes per value
+        FP16, // 2 bytes per value, half precision
+        INT8, // 1 byte per value, scalar quantized per dimension
+        PQ // 1 byte per 4 values, product quantized
+    }
 
     private final String[] vocab;
-    private final Vector[] embeddings;
-    private final Map<String, Integer> word2Index;
+    private final VectorStorage embeddings;
+    private final VocabularyIndex vocabularyIndex;
 
-    private final Map<Vector, Integer> embedding2Index;
-    private VPTree<Vector> neighborIndex;
+    // Built on first use unless set beforehand; volatile for safe publication across threads
+    private volatile NeighborIndex neighborIndex;
 
     /**
      * Constructor.
@@ -47,14 +58,48 @@ public class EmbeddingContainer {
      * @param e
      */
     public EmbeddingContainer(String[] v, Vector[] e) {
+        this(v, new DenseStorage(e));
+    }
+
+    EmbeddingContainer(String[] v, VectorStorage e) {
         this.vocab = v;
         this.embeddings = e;
-        this.word2Index = new HashMap<>(vocab.length);
-        this.embedding2Index = new HashMap<>(vocab.length);
-        for (int i = 0; i < vocab.length; i++) {
-            word2Index.put(vocab[i], i);
-            embedding2Index.put(embeddings[i], i);
+        this.vocabularyIndex = new VocabularyIndex(vocab);
+    }
+
+    /**
+     * Return a container with the same vocabulary whose vectors are stored in another mode.
+     * Compressed vectors are approximations; the neighbor index is shared, since it only
+     * depends on row ids.
+     */
+    public EmbeddingContainer withStorage(Storage storage) {
+        VectorStorage converted;
+        switch (storage) {
+            case INT8:
+                converted = ScalarQuantizedStorage.quantize(embeddings);
+                break;
+            case PQ:
+                converted = ProductQuantizedStorage.quantize(embeddings, ProductQuantizedStorage.DEFAULT_SUBSPACE_DIMENSION);
+                break;
+            case FP16:
+                if (embeddings instanceof HalfPrecisionStorage) return this;
+                converted = HalfPrecisionStorage.copyOf(embeddings);
+                break;
+            default:
+                converted = MatrixStorage.copyOf(embeddings);
         }
+        EmbeddingContainer container = new EmbeddingContainer(vocab, converted);
+        container.neighborIndex = neighborIndex;
+        logger.info("Stored {} embeddings as {}: {} MB -> {} MB", vocab.length, storage,
+                embeddings.bytes() >> 20, converted.bytes() >> 20);
+        return container;
+    }
+
+    /**
+     * Approximate heap size of the stored vectors.
+     */
+    public long sizeInBytes() {
+        return embeddings.bytes();
     }
 
     /**
@@ -63,7 +108,7 @@ public class EmbeddingContainer {
      * @return
      */
     public int dimension() {
-        return embeddings[0].size();
+        return embeddings.dimension();
     }
 
     /**
@@ -82,8 +127,8 @@ public class EmbeddingContainer {
      * @return
      */
     public Vector getRawVector(String query) {
-        Integer i = word2Index.get(query);
-        return i == null ? null : embeddings[i];
+        int row = vocabularyIndex.row(query);
+        return row < 0 ? null : embeddings.get(row);
     }
 
     /**
@@ -93,7 +138,34 @@ public class EmbeddingContainer {
      * @return
      */
     public boolean contains(String query) {
-        return word2Index.containsKey(query);
+        return vocabularyIndex.row(query) >= 0;
+    }
+
+    /**
+     * The row of a word, or -1 if the container has no embedding for it.
+     */
+    public int row(String word) {
+        return vocabularyIndex.row(word);
+    }
+
+    /**
+     * The row of the word in s[start, end), or -1, without creating a String.
+     */
+    int row(CharSequence s, int start, int end) {
+        return vocabularyIndex.row(s, start, end);
+    }
+
+    /**
+     * Write the mean of the first n of the given rows into dest, as getMean() computes it
+     * for their words.
+     */
+    float[] mean(int[] rows, int n, float[] dest) {
+        Arrays.fill(dest, 0f);
+        for (int i = 0; i < n; i++) {
+            embeddings.addTo(rows[i], dest);
+        }
+        if (n > 1) VectorWorkspace.scale(dest, 1.0f / n);
+        return dest;
     }
 
     /**
@@ -103,41 +175,109 @@ public class EmbeddingContainer {
      * @return
      */
     public Vector getMean(String[] tokens) {
-        Vector avgVec = null;
+        return new FloatVector(getMean(tokens, new float[dimension()]), false);
+    }
+
+    /**
+     * Write the average vector of the known tokens into dest, e.g. a buffer of a
+     * {@link VectorWorkspace}, and return it.
+     */
+    public float[] getMean(String[] tokens, float[] dest) {
+        Arrays.fill(dest, 0f);
         int n = 0;
         for (String token : tokens) {
-            Vector v = getRawVector(token);
-            if (v == null) continue;
-            if (avgVec == null) {
-                avgVec = v.copy();
-            } else {
-                avgVec.add(v);
-            }
+            int row = vocabularyIndex.row(token);
+            if (row < 0) continue;
+            embeddings.addTo(row, dest);
             ++n;
         }
-        if (n == 0) {
-            return new DenseVector(dimension());
-        }
-        avgVec.scale(1.0f / n);
-        return avgVec;
+        if (n > 1) VectorWorkspace.scale(dest, 1.0f / n);
+        return dest;
     }
 
     /**
      * Return k words nearest to a word. The result will include the word.
      */
     public List<String> neighbors(String word, int k) {
-        return neighbors(embeddings[word2Index.get(word)], k);
+        return neighbors(embeddings.get(vocabularyIndex.row(word)), k);
     }
 
     /**
      * Return k words nearest to an embedding vector.
      */
     public List<String> neighbors(Vector embedding, int k) {
-        if (neighborIndex == null) {
-            neighborIndex = new VPTree<Vector>(EmbeddingContainer::angularDistance, Arrays.asList(embeddings));
+        int[] rows = neighborIndex().search(this, embedding, k);
+        return Arrays.stream(rows).mapToObj(i -> vocab[i]).collect(toList());
+    }
+
+    /**
+     * Return the k words nearest to an embedding vector with their cosine similarities,
+     * skipping excluded words. Returns an empty list for a zero vector.
+     */
+    public List<Neighbor> nearest(Vector embedding, int k, Collection<String> excluded) {
+        return nearest(embedding, k, excluded, Integer.MAX_VALUE);
+    }
+
+    /**
+     * As {@link #nearest(Vector, int, Collection)}, but approximate: at most maxVisits
+     * distances are computed by the neighbor index.
+     */
+    public List<Neighbor> nearest(Vector embedding, int k, Collection<String> excluded, int maxVisits) {
+        if (embedding.norm(Vector.Norm.Two) == 0.0) {
+            return Collections.emptyList();
+        }
+        int[] rows = neighborIndex().search(this, embedding, k + excluded.size(), maxVisits);
+        IntToDoubleFunction similarity = cosineSimilarities(embedding);
+        List<Neighbor> neighbors = new ArrayList<>(k);
+        for (int row : rows) {
+            if (neighbors.size() == k) break;
+            if (excluded.contains(vocab[row])) continue;
+            neighbors.add(new Neighbor(vocab[row], row, similarity.applyAsDouble(row)));
+        }
+        return neighbors;
+    }
+
+    /**
+     * Write the vector of a row into dest and return it.
+     */
+    public float[] decode(int row, float[] dest) {
+        return embeddings.decode(row, dest);
+    }
+
+    /**
+     * The word of a row.
+     */
+    public String word(int row) {
+        return vocab[row];
+    }
+
+    /**
+     * The neighbor index, which is built on first use if it was not loaded beforehand.
+     */
+    public NeighborIndex neighborIndex() {
+        NeighborIndex index = neighborIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = neighborIndex;
+                if (index == null) {
+                    logger.info("Building neighbor index for {} words", vocab.length);
+                    index = NeighborIndex.build(this);
+                    neighborIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Use a prebuilt neighbor index, e.g., one read from disk.
+     */
+    public void setNeighborIndex(NeighborIndex index) {
+        if (index.size() != vocab.length) {
+            throw new IllegalArgumentException(String.format("Neighbor index has %d rows, but the model has %d",
+                    index.size(), vocab.length));
         }
-        return neighborIndex.getNearestNeighbors(embedding, k)
-                .stream().map(e -> vocab[embedding2Index.get(e)]).collect(toList());
+        neighborIndex = index;
     }
 
     /**
@@ -147,6 +287,54 @@ public class EmbeddingContainer {
         return Math.acos(VectorMath.cosineSimilarity(a, b)) / Math.PI;
     }
 
+    /*
+     * Angular distances from a row to other rows. Zero vectors are orthogonal to everything.
+     */
+    IntToDoubleFunction angularDistances(int row) {
+        return angularDistances(embeddings.decode(row, new float[dimension()]), embeddings.norm(row));
+    }
+
+    /*
+     * Angular distances from a query vector to rows.
+     */
+    IntToDoubleFunction angularDistances(Vector query) {
+        return angularDistances(toArray(query), query.norm(Vector.Norm.Two));
+    }
+
+    private IntToDoubleFunction angularDistances(float[] query, double queryNorm) {
+        final IntToDoubleFunction cosines = cosineSimilarities(query, queryNorm);
+        return row -> Math.acos(cosines.applyAsDouble(row)) / Math.PI;
+    }
+
+    /*
+     * Cosine similarities from a query vector to rows, clamped to [-1, 1]; zero for zero vectors.
+     */
+    IntToDoubleFunction cosineSimilarities(Vector query) {
+        return cosineSimilarities(toArray(query), query.norm(Vector.Norm.Two));
+    }
+
+    private IntToDoubleFunction cosineSimilarities(float[] query, double queryNorm) {
+        final IntToDoubleFunction dots = embeddings.dots(query);
+        return row -> {
+            double product = queryNorm * embeddings.norm(row);
+            if (product == 0.0) {
+                return 0.0;
+            }
+            return Math.max(-1.0, Math.min(1.0, dots.applyAsDouble(row) / product));
+        };
+    }
+
+    static float[] toArray(Vector v) {
+        if (v instanceof FloatVector) {
+            return ((FloatVector) v).getData();
+        }
+        float[] f = new float[v.size()];
+        for (int i = 0; i < f.length; i++) {
+            f[i] = (float) v.get(i);
+        }
+        return f;
+    }
+
     /* File Input */
 
     /**
@@ -221,113 +409,69 @@ public class EmbeddingContainer {
         return fromBinFile(file, byteOrder, vocab, false);
     }
 
+    /**
+     * Read the binary output format, decoding words as UTF-8. Vectors are read in parallel.
+     *
+     * @param file
+     * @param byteOrder
+     * @param vocab      words to keep, or null for all
+     * @param doublePrec store vectors in double precision
+     * @return
+     * @throws IOException
+     */
     public static EmbeddingContainer fromBinFile(File file, ByteOrder byteOrder, Set<String> vocab, boolean doublePrec)
             throws IOException {
-        try (final FileInputStream fis = new FileInputStream(file)) {
-            final FileChannel channel = fis.getChannel();
-            // TODO(spenceg) Simply open a binary file stream?
-            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
-                    Math.min(channel.size(), Integer.MAX_VALUE));
-            buffer.order(byteOrder);
-            int bufferCount = 1;
-            // Java's NIO only allows memory-mapping up to 2GB. To work around this problem, we re-map
-            // every gigabyte. To calculate offsets correctly, we have to keep track how many gigabytes
-            // we've already skipped. That's what this is for.
-
-            StringBuilder sb = new StringBuilder();
-            char c = (char) buffer.get();
-            while (c != '\n') {
-                sb.append(c);
-                c = (char) buffer.get();
-            }
-            String firstLine = sb.toString();
-            int index = firstLine.indexOf(' ');
-            final int vocabSize = Integer.parseInt(firstLine.substring(0, index));
-            final int layerSize = Integer.parseInt(firstLine.substring(index + 1));
-
-            String[] words = new String[vocabSize];
-            Vector[] vectors = new Vector[vocabSize];
-            int wordindex = 0;
-            for (int lineno = 0; lineno < vocabSize; lineno++) {
-                // read vocab
-                sb.setLength(0);
-                c = (char) buffer.get();
-                while (c != ' ') {
-                    // ignore newlines in front of words (some binary files have newline,
-                    // some don't)
-                    if (c != '\n') {
-                        sb.append(c);
-                    }
-                    c = (char) buffer.get();
-                }
-                String word = sb.toString();
-
-                // read vector
-                final FloatBuffer floatBuffer = buffer.asFloatBuffer();
-                float[] floats = new float[layerSize];
-                floatBuffer.get(floats);
-                buffer.position(buffer.position() + 4 * layerSize);
-
-                if (vocab == null || vocab.contains(word)) {
-                    words[wordindex] = word;
-                    Vector vector = doublePrec ? new DenseVector(floats.length) : new FloatVector(floats.length);
-                    for (int i = 0; i < floats.length; i++) {
-                        vector.set(i, floats[i]);
-                    }
-                    vectors[wordindex] = vector;
-                    wordindex++;
-                }
-
-                // remap file
-                if (buffer.position() > ONE_GB) {
-                    final int newPosition = (int) (buffer.position() - ONE_GB);
-                    final long size = Math.min(channel.size() - ONE_GB * bufferCount, Integer.MAX_VALUE);
-                    buffer = channel.map(
-                            FileChannel.MapMode.READ_ONLY,
-                            ONE_GB * bufferCount,
-                            size);
-                    buffer.order(byteOrder);
-                    buffer.position(newPosition);
-                    bufferCount += 1;
-                }
-            }
-
-            if (wordindex < vocabSize) {
-                words = Arrays.copyOfRange(words, 0, wordindex);
-                vectors = Arrays.copyOfRange(vectors, 0, wordindex);
-            }
-            return new EmbeddingContainer(words, vectors);
-        }
+        return BinFileReader.read(file, byteOrder, vocab, doublePrec);
     }
 
     /**
-     * Read embeddings in text format.
+     * Read embeddings in text format, with or without a header line. Lines are parsed in parallel.
      *
      * @param filename
      * @return
      * @throws IOException
      */
     public static EmbeddingContainer fromTextFile(String filename) throws IOException {
-        try (LineNumberReader reader = new LineNumberReader(Files.newBufferedReader(Paths.get(filename)))) {
-            String firstLine = reader.readLine();
-            if (firstLine == null) return null;
-            String[] fields = firstLine.trim().split(" ");
-            if (fields.length != 2) throw new RuntimeException("Invalid first line: " + firstLine);
-            int vocabSize = Integer.parseInt(fields[0]);
-            int layerSize = Integer.parseInt(fields[1]);
-            String[] vocab = new String[vocabSize];
-            Vector[] vectors = new Vector[vocabSize];
-            for (String line; (line = reader.readLine()) != null; ) {
-                int i = reader.getLineNumber() - 2; // one-indexed
-                String[] values = line.trim().split(" ");
-                vocab[i] = values[0].trim();
-
-                vectors[i] = new FloatVector(layerSize);
-                for (int d = 1; d < values.length; d++) {
-                    vectors[i].set(d - 1, Float.parseFloat(values[d]));
+        return TextFileReader.read(new File(filename));
+    }
+
+    /* File Output */
+
+    /**
+     * Write the binary format of the word2vec C reference implementation, with words in
+     * UTF-8 and values in little-endian order.
+     */
+    public void toBinFile(File file) throws IOException {
+        toBinFile(file, Storage.FLOAT);
+    }
+
+    /**
+     * Write the binary format with FLOAT values, or with FP16 values and the header
+     * "rows dimension fp16", which fromBinFile() reads into half-precision storage directly.
+     */
+    public void toBinFile(File file, Storage values) throws IOException {
+        if (values != Storage.FLOAT && values != Storage.FP16) {
+            throw new IllegalArgumentException("Cannot write " + values + " values");
+        }
+        final boolean half = values == Storage.FP16;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            out.write(String.format(half ? "%d %d fp16\n" : "%d %d\n", vocab.length, dimension())
+                    .getBytes(StandardCharsets.UTF_8));
+            float[] row = new float[dimension()];
+            ByteBuffer bytes = ByteBuffer.allocate((half ? 2 : 4) * dimension()).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < vocab.length; i++) {
+                out.write(vocab[i].getBytes(StandardCharsets.UTF_8));
+                out.write(' ');
+                bytes.clear();
+                embeddings.decode(i, row);
+                if (half) {
+                    for (float x : row) bytes.putShort(HalfPrecisionStorage.toHalf(x));
+                } else {
+                    bytes.asFloatBuffer().put(row);
                 }
+                out.write(bytes.array());
+                out.write('\n');
             }
-            return new EmbeddingContainer(vocab, vectors);
         }
     }
 
@@ -0,0 +1,70 @@
+package org.oscii.neural;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Convert a text-format embedding model to the word2vec binary format, which loads
+ * faster, and optionally build its neighbor index in the same run. Binary models can
+ * also be converted to half-precision values.
+ */
+public class EmbeddingConverter {
+    private final static Logger log = LogManager.getLogger(EmbeddingConverter.class);
+
+    public static void main(String[] args) throws IOException {
+        OptionSet options = parse(args);
+
+        File input = (File) options.valueOf("input");
+        File output = (File) options.valueOf("output");
+        log.info("Loading embeddings from {}", input);
+        long start = System.nanoTime();
+        EmbeddingContainer model = options.has("binary")
+                ? EmbeddingContainer.fromBinFile(input)
+                : EmbeddingContainer.fromTextFile(input.getPath());
+        log.info("Loaded {} x {} embeddings in {} seconds", model.vocabSize(), model.dimension(),
+                String.format("%.1f", (System.nanoTime() - start) / 1e9));
+        model.toBinFile(output, options.has("fp16") ? EmbeddingContainer.Storage.FP16 : EmbeddingContainer.Storage.FLOAT);
+        log.info("Wrote {}", output);
+        if (options.has("index")) {
+            File indexFile = NeighborIndex.fileFor(output);
+            model.neighborIndex().write(indexFile);
+            log.info("Wrote {}", indexFile);
+        }
+    }
+
+    /*
+     * Parse command-line arguments.
+     */
+    private static OptionSet parse(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        parser.accepts("input", "text model file").withRequiredArg().ofType(File.class).required();
+        parser.accepts("binary", "the input is a binary model file");
+        parser.accepts("output", "binary model file to write").withRequiredArg().ofType(File.class).required();
+        parser.accepts("fp16", "write half-precision values");
+        parser.accepts("index", "also write the neighbor index next to the binary model");
+
+        OptionSet options = null;
+        parser.acceptsAll(Arrays.asList("h", "help"), "show help").forHelp();
+
+        boolean printHelp = false;
+        try {
+            options = parser.parse(args);
+            if (options.has("help")) {
+                printHelp = true;
+            }
+        } catch (Exception e) {
+            printHelp = true;
+        }
+        if (printHelp) {
+            parser.printHelpOn(System.out);
+            System.exit(0);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,200 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Half-precision (IEEE 754 binary16) storage: each value takes two bytes and keeps 11
+ * significant bits, which is far more than cosine rankings need. Values are widened on
+ * the fly through a table of all 65536 halves. Rows are split into blocks like
+ * {@link MatrixStorage}; loaders write rows in place and then call {@link #computeNorms()}.
+ */
+class HalfPrecisionStorage implements VectorStorage {
+    private static final int BLOCK_BITS = 16; // rows per block
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+    // The float value of every half, indexed by its bits
+    private static final float[] TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int h = 0; h < TO_FLOAT.length; h++) {
+            TO_FLOAT[h] = widen(h);
+        }
+    }
+
+    private final int rows;
+    private final int dimension;
+    private final short[][] blocks;
+    private final double[] norms;
+
+    HalfPrecisionStorage(int rows, int dimension) {
+        this.rows = rows;
+        this.dimension = dimension;
+        this.blocks = new short[(rows + BLOCK_MASK) >>> BLOCK_BITS][];
+        for (int b = 0; b < blocks.length; b++) {
+            int blockRows = Math.min(1 << BLOCK_BITS, rows - (b << BLOCK_BITS));
+            blocks[b] = new short[blockRows * dimension];
+        }
+        this.norms = new double[rows];
+    }
+
+    /**
+     * A half-precision copy of another storage, rounding to the nearest half.
+     */
+    static HalfPrecisionStorage copyOf(VectorStorage source) {
+        HalfPrecisionStorage copy = new HalfPrecisionStorage(source.rows(), source.dimension());
+        IntStream.range(0, copy.rows).parallel().forEach(row -> {
+            float[] decoded = source.decode(row, new float[copy.dimension]);
+            short[] block = copy.block(row);
+            int offset = copy.offset(row);
+            for (int i = 0; i < copy.dimension; i++) {
+                block[offset + i] = toHalf(decoded[i]);
+            }
+        });
+        copy.computeNorms();
+        return copy;
+    }
+
+    /**
+     * The block that holds a row.
+     */
+    short[] block(int row) {
+        return blocks[row >>> BLOCK_BITS];
+    }
+
+    /**
+     * The offset of a row within its block.
+     */
+    int offset(int row) {
+        return (row & BLOCK_MASK) * dimension;
+    }
+
+    /**
+     * Compute the norms of all rows once they have been written.
+     */
+    void computeNorms() {
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            short[] block = block(row);
+            int offset = offset(row);
+            double ss = 0.0;
+            for (int i = 0; i < dimension; i++) {
+                float x = TO_FLOAT[block[offset + i] & 0xFFFF];
+                ss += x * x;
+            }
+            norms[row] = Math.sqrt(ss);
+        });
+    }
+
+    /**
+     * The float value of a half.
+     */
+    static float toFloat(short half) {
+        return TO_FLOAT[half & 0xFFFF];
+    }
+
+    /**
+     * The nearest half to a float, rounding ties to even. Values beyond the half range
+     * become infinite and NaN stays NaN.
+     */
+    static short toHalf(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int abs = bits & 0x7FFFFFFF;
+        if (abs >= 0x7F800000) {
+            return (short) (sign | 0x7C00 | (abs > 0x7F800000 ? 0x200 : 0));
+        }
+        final int exponent = (abs >>> 23) - 127 + 15;
+        if (exponent >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (exponent <= 0) {
+            // Subnormal half: the value in units of 2^-24
+            if (exponent < -10) return (short) sign;
+            final int mantissa = (abs & 0x7FFFFF) | 0x800000;
+            final int shift = 14 - exponent;
+            int half = mantissa >>> shift;
+            final int rest = mantissa & ((1 << shift) - 1);
+            final int tie = 1 << (shift - 1);
+            if (rest > tie || (rest == tie && (half & 1) != 0)) half++;
+            return (short) (sign | half);
+        }
+        int half = (exponent << 10) | ((abs >>> 13) & 0x3FF);
+        final int rest = abs & 0x1FFF;
+        // A carry out of the mantissa correctly increments the exponent, up to infinity
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) half++;
+        return (short) (sign | half);
+    }
+
+    private static float widen(int half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = (half >>> 10) & 0x1F;
+        final int mantissa = half & 0x3FF;
+        if (exponent == 0) {
+            float magnitude = mantissa * 0x1p-24f;
+            return sign == 0 ? magnitude : -magnitude;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public Vector get(int row) {
+        return new FloatVector(decode(row, new float[dimension]), false);
+    }
+
+    @Override
+    public void addTo(int row, float[] dest) {
+        final short[] block = block(row);
+        final int offset = offset(row);
+        for (int i = 0; i < dimension; i++) {
+            dest[i] += TO_FLOAT[block[offset + i] & 0xFFFF];
+        }
+    }
+
+    @Override
+    public float[] decode(int row, float[] dest) {
+        final short[] block = block(row);
+        final int offset = offset(row);
+        for (int i = 0; i < dimension; i++) {
+            dest[i] = TO_FLOAT[block[offset + i] & 0xFFFF];
+        }
+        return dest;
+    }
+
+    @Override
+    public double norm(int row) {
+        return norms[row];
+    }
+
+    @Override
+    public IntToDoubleFunction dots(float[] query) {
+        return row -> {
+            final short[] block = block(row);
+            final int offset = offset(row);
+            float dot = 0;
+            for (int i = 0; i < dimension; i++) {
+                dot += query[i] * TO_FLOAT[block[offset + i] & 0xFFFF];
+            }
+            return dot;
+        };
+    }
+
+    @Override
+    public long bytes() {
+        return 2L * rows * dimension + 8L * rows;
+    }
+}
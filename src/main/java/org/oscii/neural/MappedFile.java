@@ -0,0 +1,84 @@
+package org.oscii.neural;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory-mapped file of any size.
+ * <p>
+ * Java's NIO only maps up to 2GB at once, so the file is mapped in overlapping windows
+ * that start every gigabyte. A record shorter than a gigabyte that starts in a window
+ * ends in the same window, so it can be read with int offsets.
+ */
+class MappedFile {
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+    private final long size;
+    private final ByteBuffer[] windows;
+
+    private MappedFile(long size, ByteBuffer[] windows) {
+        this.size = size;
+        this.windows = windows;
+    }
+
+    static MappedFile map(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            final long size = channel.size();
+            ByteBuffer[] windows = new ByteBuffer[(int) ((size + WINDOW_MASK) >>> WINDOW_BITS)];
+            for (int w = 0; w < windows.length; w++) {
+                long start = (long) w << WINDOW_BITS;
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(size - start, Integer.MAX_VALUE));
+            }
+            return new MappedFile(size, windows);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long pos) {
+        return windows[(int) (pos >>> WINDOW_BITS)].get((int) (pos & WINDOW_MASK));
+    }
+
+    /**
+     * The window for a record starting at pos, shared by all threads; use absolute gets only.
+     */
+    ByteBuffer window(long pos) {
+        return windows[(int) (pos >>> WINDOW_BITS)];
+    }
+
+    /**
+     * The offset of pos within {@link #window(long)}.
+     */
+    static int offset(long pos) {
+        return (int) (pos & WINDOW_MASK);
+    }
+
+    /**
+     * Windows with independent positions, for relative and bulk reads by one thread.
+     */
+    ByteBuffer[] views(ByteOrder byteOrder) {
+        ByteBuffer[] views = new ByteBuffer[windows.length];
+        for (int w = 0; w < windows.length; w++) {
+            views[w] = windows[w].duplicate().order(byteOrder);
+        }
+        return views;
+    }
+
+    /**
+     * Position a view at pos and return it.
+     */
+    static ByteBuffer at(ByteBuffer[] views, long pos) {
+        ByteBuffer view = views[(int) (pos >>> WINDOW_BITS)];
+        view.position(offset(pos));
+        return view;
+    }
+}
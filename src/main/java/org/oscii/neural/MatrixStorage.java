@@ -0,0 +1,129 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Full-precision storage in one contiguous float matrix, split into blocks of rows so
+ * that models may exceed the maximum array length. Loaders write rows in place and
+ * then call {@link #computeNorms()}.
+ */
+class MatrixStorage implements VectorStorage {
+    private static final int BLOCK_BITS = 16; // rows per block
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+    private final int rows;
+    private final int dimension;
+    private final float[][] blocks;
+    private final double[] norms;
+
+    MatrixStorage(int rows, int dimension) {
+        this.rows = rows;
+        this.dimension = dimension;
+        this.blocks = new float[(rows + BLOCK_MASK) >>> BLOCK_BITS][];
+        for (int b = 0; b < blocks.length; b++) {
+            int blockRows = Math.min(1 << BLOCK_BITS, rows - (b << BLOCK_BITS));
+            blocks[b] = new float[blockRows * dimension];
+        }
+        this.norms = new double[rows];
+    }
+
+    /**
+     * A full-precision copy of another storage.
+     */
+    static MatrixStorage copyOf(VectorStorage source) {
+        MatrixStorage copy = new MatrixStorage(source.rows(), source.dimension());
+        IntStream.range(0, copy.rows).parallel().forEach(row -> {
+            float[] decoded = source.decode(row, new float[copy.dimension]);
+            System.arraycopy(decoded, 0, copy.block(row), copy.offset(row), copy.dimension);
+        });
+        copy.computeNorms();
+        return copy;
+    }
+
+    /**
+     * The block that holds a row.
+     */
+    float[] block(int row) {
+        return blocks[row >>> BLOCK_BITS];
+    }
+
+    /**
+     * The offset of a row within its block.
+     */
+    int offset(int row) {
+        return (row & BLOCK_MASK) * dimension;
+    }
+
+    /**
+     * Compute the norms of all rows once they have been written.
+     */
+    void computeNorms() {
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            float[] block = block(row);
+            int offset = offset(row);
+            double ss = 0.0;
+            for (int i = 0; i < dimension; i++) {
+                ss += block[offset + i] * block[offset + i];
+            }
+            norms[row] = Math.sqrt(ss);
+        });
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public Vector get(int row) {
+        int offset = offset(row);
+        return new FloatVector(Arrays.copyOfRange(block(row), offset, offset + dimension), false);
+    }
+
+    @Override
+    public void addTo(int row, float[] dest) {
+        float[] block = block(row);
+        int offset = offset(row);
+        for (int i = 0; i < dimension; i++) {
+            dest[i] += block[offset + i];
+        }
+    }
+
+    @Override
+    public float[] decode(int row, float[] dest) {
+        System.arraycopy(block(row), offset(row), dest, 0, dimension);
+        return dest;
+    }
+
+    @Override
+    public double norm(int row) {
+        return norms[row];
+    }
+
+    @Override
+    public IntToDoubleFunction dots(float[] query) {
+        return row -> {
+            float[] block = block(row);
+            int offset = offset(row);
+            float dot = 0;
+            for (int i = 0; i < dimension; i++) {
+                dot += query[i] * block[offset + i];
+            }
+            return dot;
+        };
+    }
+
+    @Override
+    public long bytes() {
+        return 4L * rows * dimension + 8L * rows;
+    }
+}
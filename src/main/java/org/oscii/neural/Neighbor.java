@@ -0,0 +1,21 @@
+package org.oscii.neural;
+
+/**
+ * A word near a query in embedding space.
+ */
+public class Neighbor {
+    public final String word;
+    public final int row;
+    public final double similarity; // cosine similarity to the query
+
+    public Neighbor(String word, int row, double similarity) {
+        this.word = word;
+        this.row = row;
+        this.similarity = similarity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.4f)", word, similarity);
+    }
+}
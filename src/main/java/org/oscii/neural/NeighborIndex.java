@@ -0,0 +1,436 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * An exact nearest-neighbor index over the rows of an embedding model.
+ * <p>
+ * The index is a vantage-point tree stored in two flat columns, so that it can be
+ * built offline, written next to the model file, and memory-mapped at startup.
+ * Rows are kept in tree order: the subtree for the range [lo, hi) has its vantage
+ * point at lo, rows within radius(lo) of it in [lo + 1, mid), and all other rows
+ * in [mid, hi), where mid = (lo + 1 + hi) / 2.
+ */
+public class NeighborIndex {
+
+    private final static Logger logger = LogManager.getLogger(NeighborIndex.class);
+
+    public static final String SUFFIX = ".nbr";
+
+    private static final int MAGIC = 0x4e425231; // NBR1
+    private static final int HEADER_BYTES = 16;
+    private static final int PARALLEL_THRESHOLD = 10000;
+    // Slack for radii stored in single precision
+    private static final double EPSILON = 1e-6;
+
+    private final IntBuffer rows;
+    private final FloatBuffer radii;
+
+    NeighborIndex(IntBuffer rows, FloatBuffer radii) {
+        if (rows.capacity() != radii.capacity()) throw new IllegalArgumentException();
+        this.rows = rows;
+        this.radii = radii;
+    }
+
+    /**
+     * Number of rows in the index.
+     */
+    public int size() {
+        return rows.capacity();
+    }
+
+    /**
+     * Build an index over all rows of a model.
+     */
+    public static NeighborIndex build(EmbeddingContainer model) {
+        final int n = model.vocabSize();
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        float[] radii = new float[n];
+        float[] distances = new float[n];
+        ForkJoinPool.commonPool().invoke(new Builder(model, rows, radii, distances, 0, n));
+        return new NeighborIndex(IntBuffer.wrap(rows), FloatBuffer.wrap(radii));
+    }
+
+    /**
+     * Return the k rows nearest to a query vector, nearest first.
+     */
+    public int[] search(EmbeddingContainer model, Vector query, int k) {
+        return search(model, query, k, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return k rows near a query vector, nearest first, after computing at most maxVisits
+     * distances. Subtrees are searched best first, in the order of a lower bound on their
+     * distances to the query, so a budget yields approximate neighbors at a bounded cost;
+     * without one the search is exact.
+     */
+    public int[] search(EmbeddingContainer model, Vector query, int k, int maxVisits) {
+        if (k <= 0 || size() == 0) return new int[0];
+        final IntToDoubleFunction distance = model.angularDistances(query);
+        final TopK top = new TopK(Math.min(k, size()));
+        final Frontier frontier = new Frontier();
+        frontier.push(0, size(), 0.0);
+        for (int visits = 0; visits < maxVisits && !frontier.isEmpty(); visits++) {
+            final double bound = frontier.bound();
+            if (bound - EPSILON > top.bound()) break;
+            final int lo = frontier.lo();
+            final int hi = frontier.hi();
+            frontier.pop();
+            final int vantage = rows.get(lo);
+            final double d = distance.applyAsDouble(vantage);
+            top.offer(vantage, d);
+            if (hi - lo == 1) continue;
+            // rows in [lo + 1, mid) are within radius of the vantage point, the others are not
+            final int mid = (lo + 1 + hi) >>> 1;
+            final double radius = radii.get(lo);
+            if (lo + 1 < mid) frontier.push(lo + 1, mid, Math.max(bound, d - radius));
+            frontier.push(mid, hi, Math.max(bound, radius - d));
+        }
+        return top.sortedRows();
+    }
+
+    /* File I/O */
+
+    /**
+     * The index file that belongs to a model file.
+     */
+    public static File fileFor(File model) {
+        return new File(model.getPath() + SUFFIX);
+    }
+
+    /**
+     * Write the index in little-endian order: a header followed by the row and radius columns.
+     */
+    public void write(File file) throws IOException {
+        final int n = size();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(n).putInt(0).putInt(0);
+            flush(channel, header);
+            ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < n; i++) {
+                if (!block.hasRemaining()) flush(channel, block);
+                block.putInt(rows.get(i));
+            }
+            flush(channel, block);
+            for (int i = 0; i < n; i++) {
+                if (!block.hasRemaining()) flush(channel, block);
+                block.putFloat(radii.get(i));
+            }
+            flush(channel, block);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Memory-map an index file. Throws IOException if it does not index vocabSize rows.
+     */
+    public static NeighborIndex read(File file, int vocabSize) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a neighbor index: " + file);
+            }
+            final int n = buffer.getInt(4);
+            if (n != vocabSize) {
+                throw new IOException(String.format("Neighbor index %s has %d rows, but the model has %d",
+                        file, n, vocabSize));
+            }
+            if (buffer.capacity() != HEADER_BYTES + 8L * n) {
+                throw new IOException("Truncated neighbor index: " + file);
+            }
+            IntBuffer rows = slice(buffer, HEADER_BYTES, 4 * n).asIntBuffer();
+            FloatBuffer radii = slice(buffer, HEADER_BYTES + 4 * n, 4 * n).asFloatBuffer();
+            return new NeighborIndex(rows, radii);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice().order(buffer.order());
+    }
+
+    /* Construction */
+
+    /*
+     * Recursively partition [lo, hi) around a vantage point; subtrees are built in parallel.
+     */
+    private static class Builder extends RecursiveAction {
+        private static final long serialVersionUID = 2215387104918470931L;
+
+        final EmbeddingContainer model;
+        final int[] rows;
+        final float[] radii;
+        final float[] distances;
+        final int lo, hi;
+
+        Builder(EmbeddingContainer model, int[] rows, float[] radii, float[] distances, int lo, int hi) {
+            this.model = model;
+            this.rows = rows;
+            this.radii = radii;
+            this.distances = distances;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            int lo = this.lo;
+            while (hi - lo > 1) {
+                final int mid = partition(lo);
+                if (hi - lo > PARALLEL_THRESHOLD) {
+                    invokeAll(new Builder(model, rows, radii, distances, lo + 1, mid),
+                            new Builder(model, rows, radii, distances, mid, hi));
+                    return;
+                }
+                new Builder(model, rows, radii, distances, lo + 1, mid).compute();
+                lo = mid;
+            }
+            if (lo < hi) {
+                radii[lo] = 0f;
+            }
+        }
+
+        // Choose a vantage point for [lo, hi), move it to lo, and split the rest at the median distance.
+        private int partition(int lo) {
+            swap(lo, lo + (int) Long.remainderUnsigned(mix(lo ^ ((long) hi << 32)), hi - lo));
+            final IntToDoubleFunction distance = model.angularDistances(rows[lo]);
+            for (int i = lo + 1; i < hi; i++) {
+                distances[i] = (float) distance.applyAsDouble(rows[i]);
+            }
+            final int mid = (lo + 1 + hi) >>> 1;
+            select(lo + 1, hi - 1, mid);
+            radii[lo] = distances[mid];
+            return mid;
+        }
+
+        // Quickselect so that distances in [from, k) <= distances[k] <= distances in (k, to].
+        private void select(int from, int to, int k) {
+            while (from < to) {
+                float pivot = distances[(from + to) >>> 1];
+                int i = from, j = to;
+                while (i <= j) {
+                    while (distances[i] < pivot) i++;
+                    while (distances[j] > pivot) j--;
+                    if (i <= j) swap(i++, j--);
+                }
+                if (k <= j) {
+                    to = j;
+                } else if (k >= i) {
+                    from = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            int r = rows[i];
+            rows[i] = rows[j];
+            rows[j] = r;
+            float d = distances[i];
+            distances[i] = distances[j];
+            distances[j] = d;
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return z ^ (z >>> 33);
+        }
+    }
+
+    /*
+     * A bounded max-heap of (distance, row) candidates. Ties are broken by row.
+     */
+    private static class TopK {
+        final int k;
+        final int[] rows;
+        final double[] distances;
+        int size = 0;
+
+        TopK(int k) {
+            this.k = k;
+            this.rows = new int[k];
+            this.distances = new double[k];
+        }
+
+        double bound() {
+            return size < k ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(int row, double distance) {
+            if (size < k) {
+                int i = size++;
+                rows[i] = row;
+                distances[i] = distance;
+                siftUp(i);
+            } else if (worse(row, distance, 0) < 0) {
+                rows[0] = row;
+                distances[0] = distance;
+                siftDown(0);
+            }
+        }
+
+        int[] sortedRows() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> worse(rows[a], distances[a], b));
+            int[] sorted = new int[size];
+            for (int i = 0; i < size; i++) sorted[i] = rows[order[i]];
+            return sorted;
+        }
+
+        // Compare (row, distance) to the entry at i: positive if it ranks after it.
+        private int worse(int row, double distance, int i) {
+            int c = Double.compare(distance, distances[i]);
+            return c != 0 ? c : Integer.compare(row, rows[i]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (worse(rows[i], distances[i], parent) <= 0) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1, largest = i;
+                if (left < size && worse(rows[left], distances[left], largest) > 0) largest = left;
+                if (left + 1 < size && worse(rows[left + 1], distances[left + 1], largest) > 0) largest = left + 1;
+                if (largest == i) return;
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int r = rows[i];
+            rows[i] = rows[j];
+            rows[j] = r;
+            double d = distances[i];
+            distances[i] = distances[j];
+            distances[j] = d;
+        }
+    }
+
+    /*
+     * A min-heap of subtrees [lo, hi) to search, keyed by a lower bound on their distances.
+     */
+    private static class Frontier {
+        int[] los = new int[64];
+        int[] his = new int[64];
+        double[] bounds = new double[64];
+        int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int lo() {
+            return los[0];
+        }
+
+        int hi() {
+            return his[0];
+        }
+
+        double bound() {
+            return bounds[0];
+        }
+
+        void push(int lo, int hi, double bound) {
+            if (size == los.length) {
+                los = Arrays.copyOf(los, 2 * size);
+                his = Arrays.copyOf(his, 2 * size);
+                bounds = Arrays.copyOf(bounds, 2 * size);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (bounds[parent] <= bound) break;
+                move(parent, i);
+                i = parent;
+            }
+            los[i] = lo;
+            his[i] = hi;
+            bounds[i] = bound;
+        }
+
+        void pop() {
+            final int last = --size;
+            final double bound = bounds[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && bounds[child + 1] < bounds[child]) child++;
+                if (bound <= bounds[child]) break;
+                move(child, i);
+                i = child;
+            }
+            move(last, i);
+        }
+
+        private void move(int from, int to) {
+            los[to] = los[from];
+            his[to] = his[from];
+            bounds[to] = bounds[from];
+        }
+    }
+
+    /**
+     * Build the index for a binary model file offline and write it next to the model.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.printf("Usage: java %s bin_file%n", NeighborIndex.class.getName());
+            System.exit(-1);
+        }
+        File modelFile = new File(args[0]);
+        logger.info("Loading embeddings from {}", modelFile);
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(modelFile);
+        logger.info("Building neighbor index for {} words", model.vocabSize());
+        long start = System.nanoTime();
+        NeighborIndex index = build(model);
+        logger.info("Built neighbor index in {} seconds", String.format("%.1f", (System.nanoTime() - start) / 1e9));
+        File indexFile = fileFor(modelFile);
+        index.write(indexFile);
+        logger.info("Wrote {}", indexFile);
+    }
+}
@@ -0,0 +1,129 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.NotConvergedException;
+import no.uib.cipr.matrix.SymmDenseEVD;
+import org.oscii.math.VectorMath;
+
+import java.util.stream.IntStream;
+
+/**
+ * Principal components of the vectors of an embedding model, for reducing its dimension.
+ * <p>
+ * By default the components are those of the uncentered second-moment matrix, so that a
+ * projection preserves dot products, and hence cosine similarities, as well as possible.
+ * Centering on the mean instead preserves differences between vectors.
+ */
+public class PrincipalComponents {
+    private static final int ROWS_PER_TASK = 1024;
+
+    private final float[] mean; // zero unless centered
+    private final float[][] components; // unit eigenvectors, largest eigenvalue first
+    private final double[] eigenvalues; // in the same order
+    private final double total; // sum of all eigenvalues
+
+    private PrincipalComponents(float[] mean, float[][] components, double[] eigenvalues, double total) {
+        this.mean = mean;
+        this.components = components;
+        this.eigenvalues = eigenvalues;
+        this.total = total;
+    }
+
+    /**
+     * Fit components on at most sampleSize evenly spaced rows of a model.
+     */
+    public static PrincipalComponents fit(EmbeddingContainer model, int sampleSize, boolean center) {
+        final int d = model.dimension();
+        final int n = Math.min(sampleSize, model.vocabSize());
+        final long stride = n == 0 ? 1 : model.vocabSize() / n;
+        final float[] mean = new float[d];
+        if (center) {
+            float[] row = new float[d];
+            for (int i = 0; i < n; i++) {
+                VectorMath.addInPlace(mean, model.decode((int) (i * stride), row));
+            }
+            for (int j = 0; j < d; j++) mean[j] /= Math.max(1, n);
+        }
+
+        // Upper triangle of the sample's second moments about the mean, summed over tasks
+        double[] moments = IntStream.range(0, (n + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().mapToObj(t -> {
+            double[] sum = new double[d * d];
+            float[] row = new float[d];
+            for (int i = t * ROWS_PER_TASK; i < Math.min(n, (t + 1) * ROWS_PER_TASK); i++) {
+                model.decode((int) (i * stride), row);
+                for (int j = 0; j < d; j++) row[j] -= mean[j];
+                for (int j = 0; j < d; j++) {
+                    final double x = row[j];
+                    for (int l = j; l < d; l++) sum[j * d + l] += x * row[l];
+                }
+            }
+            return sum;
+        }).reduce(new double[d * d], (a, b) -> {
+            double[] c = new double[d * d];
+            for (int i = 0; i < c.length; i++) c[i] = a[i] + b[i];
+            return c;
+        });
+
+        DenseMatrix matrix = new DenseMatrix(d, d);
+        for (int j = 0; j < d; j++) {
+            for (int l = j; l < d; l++) {
+                double m = moments[j * d + l] / Math.max(1, n);
+                matrix.set(j, l, m);
+                matrix.set(l, j, m);
+            }
+        }
+        SymmDenseEVD evd;
+        try {
+            evd = SymmDenseEVD.factorize(matrix);
+        } catch (NotConvergedException e) {
+            throw new IllegalStateException("Eigendecomposition did not converge", e);
+        }
+        // MTJ returns eigenvalues in ascending order
+        double[] ascending = evd.getEigenvalues();
+        DenseMatrix vectors = evd.getEigenvectors();
+        float[][] components = new float[d][d];
+        double[] eigenvalues = new double[d];
+        double total = 0.0;
+        for (int c = 0; c < d; c++) {
+            int column = d - 1 - c;
+            eigenvalues[c] = Math.max(0.0, ascending[column]);
+            total += eigenvalues[c];
+            for (int j = 0; j < d; j++) {
+                components[c][j] = (float) vectors.get(j, column);
+            }
+        }
+        return new PrincipalComponents(mean, components, eigenvalues, total);
+    }
+
+    /**
+     * Fraction of the sample's variance (or energy, if uncentered) kept by the first k components.
+     */
+    public double retained(int k) {
+        double kept = 0.0;
+        for (int c = 0; c < Math.min(k, eigenvalues.length); c++) kept += eigenvalues[c];
+        return total == 0.0 ? 1.0 : kept / total;
+    }
+
+    /**
+     * Project all rows of a model onto the first k components.
+     */
+    public EmbeddingContainer project(EmbeddingContainer model, int k) {
+        if (k <= 0 || k > components.length) throw new IllegalArgumentException("Invalid dimension " + k);
+        final int d = model.dimension();
+        final MatrixStorage storage = new MatrixStorage(model.vocabSize(), k);
+        IntStream.range(0, (model.vocabSize() + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(t -> {
+            float[] row = new float[d];
+            for (int i = t * ROWS_PER_TASK; i < Math.min(model.vocabSize(), (t + 1) * ROWS_PER_TASK); i++) {
+                model.decode(i, row);
+                for (int j = 0; j < d; j++) row[j] -= mean[j];
+                float[] block = storage.block(i);
+                int offset = storage.offset(i);
+                for (int c = 0; c < k; c++) {
+                    block[offset + c] = VectorMath.dot(components[c], 0, row, 0, d);
+                }
+            }
+        });
+        storage.computeNorms();
+        return new EmbeddingContainer(model.vocab().toArray(new String[0]), storage);
+    }
+}
@@ -0,0 +1,222 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Product quantization: the dimensions are split into subspaces, and each row stores,
+ * for every subspace, the index of the nearest of 256 centroids trained by k-means.
+ * <p>
+ * Dot products are asymmetric: the query stays in full precision and is compared to
+ * the centroids once, after which each row costs one table lookup per subspace.
+ */
+class ProductQuantizedStorage implements VectorStorage {
+    private final static Logger logger = LogManager.getLogger(ProductQuantizedStorage.class);
+
+    static final int DEFAULT_SUBSPACE_DIMENSION = 4;
+    private static final int CENTROIDS = 256;
+    private static final int MAX_TRAINING_ROWS = 50000;
+    private static final int ITERATIONS = 15;
+
+    private final int rows;
+    private final int dimension;
+    private final int subspaces;
+    private final int centroids;
+    private final int[] starts; // subspace s covers dimensions [starts[s], starts[s + 1])
+    private final float[][] codebooks; // subspace -> centroid-major values
+    private final byte[] codes; // row-major, one code per subspace
+    private final double[] norms;
+
+    private ProductQuantizedStorage(int rows, int dimension, int[] starts, int centroids,
+                                    float[][] codebooks, byte[] codes) {
+        this.rows = rows;
+        this.dimension = dimension;
+        this.subspaces = starts.length - 1;
+        this.centroids = centroids;
+        this.starts = starts;
+        this.codebooks = codebooks;
+        this.codes = codes;
+        this.norms = new double[rows];
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            double ss = 0.0;
+            for (int s = 0; s < subspaces; s++) {
+                int width = starts[s + 1] - starts[s];
+                int c = code(row, s) * width;
+                for (int i = 0; i < width; i++) {
+                    double x = codebooks[s][c + i];
+                    ss += x * x;
+                }
+            }
+            norms[row] = Math.sqrt(ss);
+        });
+    }
+
+    /**
+     * Train codebooks on (a sample of) the rows of another storage and encode all rows.
+     *
+     * @param subspaceDimension number of dimensions covered by each code byte
+     */
+    static ProductQuantizedStorage quantize(VectorStorage source, int subspaceDimension) {
+        final int rows = source.rows();
+        final int dimension = source.dimension();
+        final int subspaces = Math.max(1, dimension / subspaceDimension);
+        if ((long) rows * subspaces > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many codes: " + (long) rows * subspaces);
+        }
+        final int[] starts = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            starts[s] = s * dimension / subspaces;
+        }
+
+        // Evenly spaced training sample
+        final int sampleSize = Math.min(rows, MAX_TRAINING_ROWS);
+        final float[][] sample = new float[sampleSize][];
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = source.decode((int) ((long) i * rows / sampleSize), new float[dimension]);
+        }
+        final int centroids = Math.min(CENTROIDS, sampleSize);
+        logger.info("Training {} x {} centroids on {} rows", subspaces, centroids, sampleSize);
+        final float[][] codebooks = new float[subspaces][];
+        IntStream.range(0, subspaces).parallel().forEach(s ->
+                codebooks[s] = kMeans(sample, starts[s], starts[s + 1], centroids));
+
+        final byte[] codes = new byte[rows * subspaces];
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            float[] values = source.decode(r, new float[dimension]);
+            for (int s = 0; s < subspaces; s++) {
+                codes[r * subspaces + s] = (byte) nearest(codebooks[s], centroids, values, starts[s], starts[s + 1]);
+            }
+        });
+        return new ProductQuantizedStorage(rows, dimension, starts, centroids, codebooks, codes);
+    }
+
+    /*
+     * Lloyd's algorithm on dimensions [from, to) of the sample, initialized with evenly spaced rows.
+     */
+    private static float[] kMeans(float[][] sample, int from, int to, int k) {
+        final int width = to - from;
+        final float[] means = new float[k * width];
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(sample[(int) ((long) c * sample.length / k)], from, means, c * width, width);
+        }
+        final int[] assignment = new int[sample.length];
+        final double[] sums = new double[k * width];
+        final int[] counts = new int[k];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int i = 0; i < sample.length; i++) {
+                int c = nearest(means, k, sample[i], from, to);
+                changed |= iteration == 0 || c != assignment[i];
+                assignment[i] = c;
+            }
+            if (!changed) break;
+            Arrays.fill(sums, 0.0);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < sample.length; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                for (int j = 0; j < width; j++) {
+                    sums[c * width + j] += sample[i][from + j];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) continue; // Keep empty clusters where they are
+                for (int j = 0; j < width; j++) {
+                    means[c * width + j] = (float) (sums[c * width + j] / counts[c]);
+                }
+            }
+        }
+        return means;
+    }
+
+    // Index of the centroid closest (in squared Euclidean distance) to dimensions [from, to) of x.
+    private static int nearest(float[] codebook, int k, float[] x, int from, int to) {
+        final int width = to - from;
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            float d = 0;
+            for (int j = 0; j < width; j++) {
+                float diff = x[from + j] - codebook[c * width + j];
+                d += diff * diff;
+            }
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int code(int row, int subspace) {
+        return codes[row * subspaces + subspace] & 0xFF;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public Vector get(int row) {
+        float[] data = new float[dimension];
+        addTo(row, data);
+        return new FloatVector(data, false);
+    }
+
+    @Override
+    public void addTo(int row, float[] dest) {
+        for (int s = 0; s < subspaces; s++) {
+            final int from = starts[s], width = starts[s + 1] - from;
+            final float[] codebook = codebooks[s];
+            final int c = code(row, s) * width;
+            for (int j = 0; j < width; j++) {
+                dest[from + j] += codebook[c + j];
+            }
+        }
+    }
+
+    @Override
+    public double norm(int row) {
+        return norms[row];
+    }
+
+    @Override
+    public IntToDoubleFunction dots(float[] query) {
+        final float[] table = new float[subspaces * centroids];
+        for (int s = 0; s < subspaces; s++) {
+            final int from = starts[s], width = starts[s + 1] - from;
+            final float[] codebook = codebooks[s];
+            for (int c = 0; c < centroids; c++) {
+                float dot = 0;
+                for (int j = 0; j < width; j++) {
+                    dot += query[from + j] * codebook[c * width + j];
+                }
+                table[s * centroids + c] = dot;
+            }
+        }
+        return row -> {
+            final int base = row * subspaces;
+            float dot = 0;
+            for (int s = 0; s < subspaces; s++) {
+                dot += table[s * centroids + (codes[base + s] & 0xFF)];
+            }
+            return dot;
+        };
+    }
+
+    @Override
+    public long bytes() {
+        return codes.length + 8L * rows + 4L * centroids * dimension;
+    }
+}
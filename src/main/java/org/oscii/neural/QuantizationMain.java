@@ -0,0 +1,78 @@
+package org.oscii.neural;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.oscii.concordance.AlignedCorpus;
+import org.oscii.concordance.IndexedAlignedCorpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Report the memory savings and the change in concordance ranking of a compressed
+ * embedding storage mode relative to full precision.
+ */
+public class QuantizationMain {
+    private final static Logger log = LogManager.getLogger(QuantizationMain.class);
+
+    public static void main(String[] args) throws IOException {
+        OptionSet options = parse(args);
+
+        File modelFile = (File) options.valueOf("embeddings");
+        log.info("Loading embeddings from {}", modelFile);
+        EmbeddingContainer reference = EmbeddingContainer.fromBinFile(modelFile);
+        EmbeddingContainer.Storage storage = EmbeddingContainer.Storage.valueOf(
+                ((String) options.valueOf("storage")).toUpperCase());
+        EmbeddingContainer quantized = reference.withStorage(storage);
+
+        String source = (String) options.valueOf("source");
+        String target = (String) options.valueOf("target");
+        AlignedCorpus corpus = new IndexedAlignedCorpus();
+        corpus.read((String) options.valueOf("corpus"), source, target, (Integer) options.valueOf("max"));
+        corpus.tally();
+
+        RankingAgreement agreement = RankingAgreement.measure(reference, quantized, corpus, source, target,
+                (Integer) options.valueOf("queries"), (Integer) options.valueOf("examples"), (Integer) options.valueOf("top"));
+        System.out.printf("Storage %s: %.1f MB -> %.1f MB (%.1fx smaller)%n", storage,
+                reference.sizeInBytes() / 1048576.0, quantized.sizeInBytes() / 1048576.0,
+                (double) reference.sizeInBytes() / quantized.sizeInBytes());
+        System.out.printf("Ranking agreement: %s%n", agreement);
+    }
+
+    /*
+     * Parse command-line arguments.
+     */
+    private static OptionSet parse(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        parser.accepts("embeddings", "binary Word2Vec model file").withRequiredArg().ofType(File.class).required();
+        parser.accepts("storage", "compressed storage: fp16, int8 or pq").withRequiredArg().defaultsTo("int8");
+        parser.accepts("corpus", "path to corpus (no suffixes)").withRequiredArg().required();
+        parser.accepts("source", "language of the embeddings").withRequiredArg().defaultsTo("en");
+        parser.accepts("target", "target language of the corpus").withRequiredArg().defaultsTo("es");
+        parser.accepts("max", "maximum number of sentence pairs").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+        parser.accepts("queries", "number of query words").withRequiredArg().ofType(Integer.class).defaultsTo(200);
+        parser.accepts("examples", "maximum examples ranked per query").withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        parser.accepts("top", "size of the top list to compare").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+
+        OptionSet options = null;
+        parser.acceptsAll(Arrays.asList("h", "help"), "show help").forHelp();
+
+        boolean printHelp = false;
+        try {
+            options = parser.parse(args);
+            if (options.has("help")) {
+                printHelp = true;
+            }
+        } catch (Exception e) {
+            printHelp = true;
+        }
+        if (printHelp) {
+            parser.printHelpOn(System.out);
+            System.exit(0);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,126 @@
+package org.oscii.neural;
+
+import org.oscii.concordance.AlignedCorpus;
+import org.oscii.concordance.SentenceExample;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the concordance rankings of two models for the same language, e.g., a
+ * full-precision model and a compressed or reduced one.
+ */
+public class RankingAgreement {
+    private final Word2VecManager reference;
+    private final Word2VecManager candidate;
+    private final String language;
+    private final int topK;
+
+    private int queries = 0;
+    private double tauSum = 0.0;
+    private double overlapSum = 0.0;
+
+    public RankingAgreement(EmbeddingContainer reference, EmbeddingContainer candidate, String language, int topK) {
+        this.reference = new Word2VecManager();
+        this.reference.add(language, reference);
+        this.candidate = new Word2VecManager();
+        this.candidate.add(language, candidate);
+        this.language = language;
+        this.topK = topK;
+    }
+
+    /**
+     * Rank examples for a context with both models and record how much the two orders agree.
+     */
+    public void add(String context, List<SentenceExample> examples) {
+        if (examples.size() < 2) return;
+        List<SentenceExample> expected = copy(examples);
+        List<SentenceExample> actual = copy(examples);
+        Map<SentenceExample, Integer> original = new IdentityHashMap<>();
+        for (int i = 0; i < examples.size(); i++) {
+            original.put(expected.get(i), i);
+            original.put(actual.get(i), i);
+        }
+        reference.rankConcordances(language, context, expected, 0);
+        candidate.rankConcordances(language, context, actual, 0);
+
+        // Position of each example in the reference order
+        int[] position = new int[examples.size()];
+        for (int i = 0; i < expected.size(); i++) {
+            position[original.get(expected.get(i))] = i;
+        }
+        int[] ranks = new int[actual.size()];
+        for (int i = 0; i < actual.size(); i++) {
+            ranks[i] = position[original.get(actual.get(i))];
+        }
+        tauSum += kendallTau(ranks);
+        int k = Math.min(topK, ranks.length);
+        int overlap = 0;
+        for (int i = 0; i < k; i++) {
+            if (ranks[i] < k) overlap++;
+        }
+        overlapSum += (double) overlap / k;
+        queries++;
+    }
+
+    private static List<SentenceExample> copy(List<SentenceExample> examples) {
+        List<SentenceExample> copies = new ArrayList<>(examples.size());
+        examples.forEach(ex -> copies.add(new SentenceExample(ex.sentence, ex.sourceStart, ex.sourceLength,
+                ex.targetStart, ex.targetLength, ex.memoryId)));
+        return copies;
+    }
+
+    /*
+     * Kendall's tau between the identity order and a permutation of it.
+     */
+    static double kendallTau(int[] ranks) {
+        final int n = ranks.length;
+        long discordant = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (ranks[i] > ranks[j]) discordant++;
+            }
+        }
+        long pairs = (long) n * (n - 1) / 2;
+        return 1.0 - 2.0 * discordant / pairs;
+    }
+
+    public int size() {
+        return queries;
+    }
+
+    public double meanKendallTau() {
+        return queries == 0 ? 1.0 : tauSum / queries;
+    }
+
+    public double meanTopOverlap() {
+        return queries == 0 ? 1.0 : overlapSum / queries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d queries: Kendall's tau %.4f, top-%d overlap %.4f",
+                queries, meanKendallTau(), topK, meanTopOverlap());
+    }
+
+    /**
+     * Measure agreement on corpus examples for the most frequent words of the reference model.
+     * The first example of each word serves as its context; the remaining ones are ranked.
+     */
+    public static RankingAgreement measure(EmbeddingContainer reference, EmbeddingContainer candidate,
+                                           AlignedCorpus corpus, String source, String target,
+                                           int numQueries, int maxExamples, int topK) {
+        RankingAgreement agreement = new RankingAgreement(reference, candidate, source, topK);
+        for (String word : reference.vocab()) {
+            if (agreement.size() >= numQueries) break;
+            if (!word.codePoints().anyMatch(Character::isLetter)) continue;
+            List<SentenceExample> examples = corpus.examples(word, source, target, maxExamples + 1, 0, true);
+            if (examples.size() < 3) continue;
+            String context = String.join(" ", examples.get(0).sentence.tokens);
+            agreement.add(context, examples.subList(1, examples.size()));
+        }
+        return agreement;
+    }
+}
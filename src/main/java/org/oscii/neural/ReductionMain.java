@@ -0,0 +1,92 @@
+package org.oscii.neural;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.oscii.concordance.AlignedCorpus;
+import org.oscii.concordance.IndexedAlignedCorpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reduce the dimension of an embedding model with PCA, write the reduced model, and
+ * report how much concordance ranking changes relative to the full model.
+ */
+public class ReductionMain {
+    private final static Logger log = LogManager.getLogger(ReductionMain.class);
+
+    public static void main(String[] args) throws IOException {
+        OptionSet options = parse(args);
+
+        File modelFile = (File) options.valueOf("embeddings");
+        log.info("Loading embeddings from {}", modelFile);
+        EmbeddingContainer reference = EmbeddingContainer.fromBinFile(modelFile);
+        int dimension = (Integer) options.valueOf("dimension");
+        int sample = (Integer) options.valueOf("sample");
+        log.info("Fitting principal components on {} of {} vectors", Math.min(sample, reference.vocabSize()),
+                reference.vocabSize());
+        PrincipalComponents pca = PrincipalComponents.fit(reference, sample, options.has("center"));
+        EmbeddingContainer reduced = pca.project(reference, dimension);
+        System.out.printf("Dimension %d -> %d: %.1f%% of the %s kept, %.1f MB -> %.1f MB%n",
+                reference.dimension(), dimension, 100 * pca.retained(dimension),
+                options.has("center") ? "variance" : "energy",
+                reference.sizeInBytes() / 1048576.0, reduced.sizeInBytes() / 1048576.0);
+
+        if (options.has("output")) {
+            File output = (File) options.valueOf("output");
+            reduced.toBinFile(output);
+            log.info("Wrote {}", output);
+        }
+
+        if (options.has("corpus")) {
+            String source = (String) options.valueOf("source");
+            String target = (String) options.valueOf("target");
+            AlignedCorpus corpus = new IndexedAlignedCorpus();
+            corpus.read((String) options.valueOf("corpus"), source, target, (Integer) options.valueOf("max"));
+            corpus.tally();
+            RankingAgreement agreement = RankingAgreement.measure(reference, reduced, corpus, source, target,
+                    (Integer) options.valueOf("queries"), (Integer) options.valueOf("examples"), (Integer) options.valueOf("top"));
+            System.out.printf("Ranking agreement: %s%n", agreement);
+        }
+    }
+
+    /*
+     * Parse command-line arguments.
+     */
+    private static OptionSet parse(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        parser.accepts("embeddings", "binary Word2Vec model file").withRequiredArg().ofType(File.class).required();
+        parser.accepts("dimension", "reduced dimension").withRequiredArg().ofType(Integer.class).required();
+        parser.accepts("sample", "number of vectors to fit on").withRequiredArg().ofType(Integer.class).defaultsTo(50000);
+        parser.accepts("center", "center vectors on their mean (preserves differences rather than cosines)");
+        parser.accepts("output", "binary model file to write").withRequiredArg().ofType(File.class);
+        parser.accepts("corpus", "path to corpus (no suffixes) for measuring ranking agreement").withRequiredArg();
+        parser.accepts("source", "language of the embeddings").withRequiredArg().defaultsTo("en");
+        parser.accepts("target", "target language of the corpus").withRequiredArg().defaultsTo("es");
+        parser.accepts("max", "maximum number of sentence pairs").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+        parser.accepts("queries", "number of query words").withRequiredArg().ofType(Integer.class).defaultsTo(200);
+        parser.accepts("examples", "maximum examples ranked per query").withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        parser.accepts("top", "size of the top list to compare").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+
+        OptionSet options = null;
+        parser.acceptsAll(Arrays.asList("h", "help"), "show help").forHelp();
+
+        boolean printHelp = false;
+        try {
+            options = parser.parse(args);
+            if (options.has("help")) {
+                printHelp = true;
+            }
+        } catch (Exception e) {
+            printHelp = true;
+        }
+        if (printHelp) {
+            parser.printHelpOn(System.out);
+            System.exit(0);
+        }
+        return options;
+    }
+}
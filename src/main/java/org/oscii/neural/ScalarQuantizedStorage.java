@@ -0,0 +1,136 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Per-dimension int8 scalar quantization: each value is stored as one of 256 evenly
+ * spaced levels between the minimum and maximum of its dimension.
+ */
+class ScalarQuantizedStorage implements VectorStorage {
+    private static final int LEVELS = 255;
+
+    private final int rows;
+    private final int dimension;
+    private final byte[] codes;
+    private final float[] offsets;
+    private final float[] scales;
+    private final double[] norms;
+
+    private ScalarQuantizedStorage(int rows, int dimension, byte[] codes, float[] offsets, float[] scales) {
+        this.rows = rows;
+        this.dimension = dimension;
+        this.codes = codes;
+        this.offsets = offsets;
+        this.scales = scales;
+        this.norms = new double[rows];
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            double ss = 0.0;
+            for (int i = 0; i < dimension; i++) {
+                double x = value(row, i);
+                ss += x * x;
+            }
+            norms[row] = Math.sqrt(ss);
+        });
+    }
+
+    /**
+     * Quantize all rows of another storage.
+     */
+    static ScalarQuantizedStorage quantize(VectorStorage source) {
+        final int rows = source.rows();
+        final int dimension = source.dimension();
+        if ((long) rows * dimension > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many values to quantize: " + (long) rows * dimension);
+        }
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        float[] row = new float[dimension];
+        for (int r = 0; r < rows; r++) {
+            source.decode(r, row);
+            for (int i = 0; i < dimension; i++) {
+                min[i] = Math.min(min[i], row[i]);
+                max[i] = Math.max(max[i], row[i]);
+            }
+        }
+        float[] scales = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            scales[i] = max[i] > min[i] ? (max[i] - min[i]) / LEVELS : 1f;
+        }
+        byte[] codes = new byte[rows * dimension];
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            float[] values = source.decode(r, new float[dimension]);
+            for (int i = 0; i < dimension; i++) {
+                int level = Math.round((values[i] - min[i]) / scales[i]);
+                codes[r * dimension + i] = (byte) Math.max(0, Math.min(LEVELS, level));
+            }
+        });
+        return new ScalarQuantizedStorage(rows, dimension, codes, min, scales);
+    }
+
+    private float value(int row, int i) {
+        return offsets[i] + scales[i] * (codes[row * dimension + i] & 0xFF);
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public Vector get(int row) {
+        float[] data = new float[dimension];
+        addTo(row, data);
+        return new FloatVector(data, false);
+    }
+
+    @Override
+    public void addTo(int row, float[] dest) {
+        final int base = row * dimension;
+        for (int i = 0; i < dimension; i++) {
+            dest[i] += offsets[i] + scales[i] * (codes[base + i] & 0xFF);
+        }
+    }
+
+    @Override
+    public double norm(int row) {
+        return norms[row];
+    }
+
+    /**
+     * The query is folded into the quantization grid once: q.x = q.offset + sum_i (q_i * scale_i) * code_i.
+     */
+    @Override
+    public IntToDoubleFunction dots(float[] query) {
+        final float[] scaled = new float[dimension];
+        double base = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            scaled[i] = query[i] * scales[i];
+            base += query[i] * offsets[i];
+        }
+        final double offset = base;
+        return row -> {
+            final int start = row * dimension;
+            float dot = 0;
+            for (int i = 0; i < dimension; i++) {
+                dot += scaled[i] * (codes[start + i] & 0xFF);
+            }
+            return offset + dot;
+        };
+    }
+
+    @Override
+    public long bytes() {
+        return codes.length + 8L * rows + 8L * dimension;
+    }
+}
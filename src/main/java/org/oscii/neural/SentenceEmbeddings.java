@@ -0,0 +1,77 @@
+package org.oscii.neural;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.oscii.concordance.AlignedSentence;
+import org.oscii.math.VectorMath;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Normalized mean embeddings of corpus sentences, keyed by sentence id. A sentence is
+ * embedded the first time one of its examples is ranked, and at most maxSize sentences
+ * are kept, the least recently used ones being dropped.
+ * <p>
+ * The similarity of a kept sentence to a normalized query is then a single dot product.
+ */
+public class SentenceEmbeddings {
+    private static final float[] UNDEFINED = new float[0]; // sentences without known words
+
+    private final int dimension;
+    private final int minSegLength;
+    private final int minTokLength;
+    private final int maxSegLength;
+    private final Cache<Integer, float[]> rows;
+
+    /**
+     * Sentences are reduced to content words as in concordance ranking.
+     */
+    public SentenceEmbeddings(int dimension, int minSegLength, int minTokLength, int maxSegLength, int maxSize) {
+        this.dimension = dimension;
+        this.minSegLength = minSegLength;
+        this.minTokLength = minTokLength;
+        this.maxSegLength = maxSegLength;
+        this.rows = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    /**
+     * Number of sentences kept.
+     */
+    public long size() {
+        return rows.size();
+    }
+
+    /**
+     * Cosine similarity of a corpus sentence to a normalized query, or NaN if the sentence
+     * has no known words. The sentence is embedded with model if it is not kept.
+     */
+    public double similarity(AlignedSentence sentence, float[] normalizedQuery, EmbeddingContainer model) {
+        float[] row;
+        try {
+            row = rows.get(sentence.getId(), () -> embed(sentence, model));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (row == UNDEFINED) return Double.NaN;
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += row[i] * normalizedQuery[i];
+        }
+        return dot;
+    }
+
+    private float[] embed(AlignedSentence sentence, EmbeddingContainer model) {
+        ContextTokenizer tokenizer = ContextTokenizer.get();
+        float[] mean = new float[dimension];
+        int n = tokenizer.tokens(sentence.tokens).reduce(model, minSegLength, minTokLength, maxSegLength);
+        model.mean(tokenizer.rows(), n, mean);
+        return VectorMath.normalize(mean, 0, mean.length) == 0f ? UNDEFINED : mean;
+    }
+
+    /**
+     * Approximate heap size.
+     */
+    public long bytes() {
+        return (4L * dimension + 64) * rows.size();
+    }
+}
@@ -0,0 +1,261 @@
+package org.oscii.neural;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+/**
+ * Reads embeddings in text format: one word per line followed by its values, with or
+ * without a "vocabSize dimension" header line (fastText and GloVe styles).
+ * <p>
+ * The file is memory-mapped and split into byte ranges aligned to line boundaries.
+ * Lines are counted per range in parallel, and then each range is parsed in parallel
+ * straight into its rows of a {@link MatrixStorage}.
+ */
+class TextFileReader {
+
+    private final static Logger logger = LogManager.getLogger(TextFileReader.class);
+
+    private static final long BYTES_PER_TASK = 16L << 20;
+
+    // Exact powers of ten in single precision, for the fast path of parseFloat
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final File file;
+    private final MappedFile mapped;
+
+    private TextFileReader(File file) throws IOException {
+        this.file = file;
+        this.mapped = MappedFile.map(file);
+    }
+
+    static EmbeddingContainer read(File file) throws IOException {
+        try {
+            return new TextFileReader(file).read();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private EmbeddingContainer read() throws IOException {
+        final long size = mapped.size();
+        final long firstEnd = lineEnd(0, size);
+        String[] fields = decode(0, (int) (firstEnd - 0)).trim().split(" ");
+        final boolean hasHeader = fields.length == 2 && isNumber(fields[0]) && isNumber(fields[1]);
+        final int dimension = hasHeader ? Integer.parseInt(fields[1]) : fields.length - 1;
+        final long dataStart = hasHeader ? Math.min(firstEnd + 1, size) : 0;
+        if (dimension <= 0) throw new IOException("Invalid first line in " + file);
+
+        // task t parses the lines that start in [bounds[t], bounds[t + 1])
+        final int tasks = (int) Math.max(1, (size - dataStart + BYTES_PER_TASK - 1) / BYTES_PER_TASK);
+        final long[] bounds = new long[tasks + 1];
+        bounds[0] = dataStart;
+        for (int t = 1; t < tasks; t++) {
+            bounds[t] = Math.max(bounds[t - 1], Math.min(lineEnd(dataStart + t * BYTES_PER_TASK - 1, size) + 1, size));
+        }
+        bounds[tasks] = size;
+
+        final int[] firstRow = new int[tasks + 1];
+        int[] counts = IntStream.range(0, tasks).parallel().map(t -> countLines(bounds[t], bounds[t + 1])).toArray();
+        for (int t = 0; t < tasks; t++) {
+            firstRow[t + 1] = firstRow[t] + counts[t];
+        }
+        final int rows = firstRow[tasks];
+        if (hasHeader && Integer.parseInt(fields[0]) != rows) {
+            logger.warn("{} declares {} words but has {}", file, fields[0], rows);
+        }
+
+        final String[] vocab = new String[rows];
+        final MatrixStorage storage = new MatrixStorage(rows, dimension);
+        IntStream.range(0, tasks).parallel().forEach(t -> {
+            int row = firstRow[t];
+            long pos = bounds[t];
+            while (pos < bounds[t + 1]) {
+                long end = lineEnd(pos, size);
+                if (!isBlank(pos, end)) {
+                    parseLine(pos, end, vocab, storage, row++);
+                }
+                pos = end + 1;
+            }
+        });
+        storage.computeNorms();
+        return new EmbeddingContainer(vocab, storage);
+    }
+
+    private long lineEnd(long pos, long size) {
+        while (pos < size && mapped.get(pos) != '\n') pos++;
+        return pos;
+    }
+
+    private boolean isBlank(long pos, long end) {
+        for (; pos < end; pos++) {
+            byte b = mapped.get(pos);
+            if (b != ' ' && b != '\r') return false;
+        }
+        return true;
+    }
+
+    private int countLines(long lo, long hi) {
+        int count = 0;
+        long pos = lo;
+        while (pos < hi) {
+            long end = lineEnd(pos, mapped.size());
+            if (!isBlank(pos, end)) count++;
+            pos = end + 1;
+        }
+        return count;
+    }
+
+    private String decode(long start, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer window = mapped.window(start);
+        int offset = MappedFile.offset(start);
+        for (int i = 0; i < length; i++) {
+            bytes[i] = window.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isNumber(String s) {
+        return !s.isEmpty() && s.chars().allMatch(Character::isDigit);
+    }
+
+    /*
+     * Parse "word v1 v2 ... vd" into a row. The line is [start, end) and shorter than a gigabyte.
+     */
+    private void parseLine(long start, long end, String[] vocab, MatrixStorage storage, int row) {
+        final ByteBuffer window = mapped.window(start);
+        final int base = MappedFile.offset(start);
+        final int length = (int) (end - start);
+        int i = 0;
+        while (i < length && window.get(base + i) == ' ') i++;
+        int wordStart = i;
+        while (i < length && window.get(base + i) != ' ') i++;
+        vocab[row] = decode(start + wordStart, i - wordStart);
+
+        final float[] block = storage.block(row);
+        final int offset = storage.offset(row);
+        final int dimension = storage.dimension();
+        Cursor cursor = new Cursor(window, base + i, base + length);
+        for (int d = 0; d < dimension; d++) {
+            if (!cursor.skipSpaces()) {
+                throw malformed(row, vocab[row], String.format("expected %d values but found %d", dimension, d));
+            }
+            block[offset + d] = cursor.parseFloat();
+        }
+        if (cursor.skipSpaces()) {
+            throw malformed(row, vocab[row], String.format("more than %d values", dimension));
+        }
+    }
+
+    private UncheckedIOException malformed(int row, String word, String message) {
+        return new UncheckedIOException(new IOException(
+                String.format("%s: word %d (%s): %s", file, row + 1, word, message)));
+    }
+
+    /*
+     * A position within one line of a mapped window.
+     */
+    private static class Cursor {
+        final ByteBuffer window;
+        final int end;
+        int pos;
+
+        Cursor(ByteBuffer window, int pos, int end) {
+            this.window = window;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        // Skip spaces and carriage returns; false at the end of the line.
+        boolean skipSpaces() {
+            while (pos < end) {
+                byte b = window.get(pos);
+                if (b != ' ' && b != '\r') return true;
+                pos++;
+            }
+            return false;
+        }
+
+        /*
+         * Parse a decimal float. Values with at most 7 significant digits and small exponents,
+         * which is what embedding tools write, are converted with one exactly rounded float
+         * operation; anything else falls back to Float.parseFloat, so results are identical.
+         */
+        float parseFloat() {
+            final int start = pos;
+            boolean negative = false;
+            byte b = window.get(pos);
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                pos++;
+            }
+            int mantissa = 0;
+            int digits = 0; // significant digits in mantissa
+            int exponent = 0;
+            boolean any = false;
+            for (; pos < end && (b = window.get(pos)) >= '0' && b <= '9'; pos++) {
+                any = true;
+                if (digits < 8) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) digits++;
+                } else {
+                    digits++;
+                    exponent++;
+                }
+            }
+            if (pos < end && window.get(pos) == '.') {
+                pos++;
+                for (; pos < end && (b = window.get(pos)) >= '0' && b <= '9'; pos++) {
+                    any = true;
+                    if (digits < 8) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (mantissa != 0) digits++;
+                        exponent--;
+                    } else {
+                        digits++;
+                    }
+                }
+            }
+            if (any && pos < end && ((b = window.get(pos)) == 'e' || b == 'E')) {
+                pos++;
+                boolean negativeExponent = false;
+                if (pos < end && ((b = window.get(pos)) == '-' || b == '+')) {
+                    negativeExponent = b == '-';
+                    pos++;
+                }
+                int e = 0;
+                boolean anyExponent = false;
+                for (; pos < end && (b = window.get(pos)) >= '0' && b <= '9'; pos++) {
+                    anyExponent = true;
+                    e = Math.min(e * 10 + (b - '0'), 1000);
+                }
+                if (!anyExponent) any = false;
+                exponent += negativeExponent ? -e : e;
+            }
+            boolean terminated = pos == end || (b = window.get(pos)) == ' ' || b == '\r';
+            if (any && terminated && digits <= 7 && Math.abs(exponent) < POWERS_OF_TEN.length) {
+                // mantissa < 2^24 and the power of ten are exact, so one operation rounds correctly
+                float value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+            return slowParseFloat(start);
+        }
+
+        private float slowParseFloat(int start) {
+            pos = start;
+            while (pos < end && window.get(pos) != ' ' && window.get(pos) != '\r') pos++;
+            byte[] bytes = new byte[pos - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = window.get(start + i);
+            }
+            return Float.parseFloat(new String(bytes, StandardCharsets.US_ASCII));
+        }
+    }
+}
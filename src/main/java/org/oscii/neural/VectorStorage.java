@@ -0,0 +1,54 @@
+package org.oscii.neural;
+
+import no.uib.cipr.matrix.Vector;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Row-addressable storage for the vectors of an embedding model.
+ * <p>
+ * Compressed implementations decode rows on the fly, so that means and dot products
+ * never materialize a full-precision copy of the model.
+ */
+interface VectorStorage {
+
+    int rows();
+
+    int dimension();
+
+    /**
+     * A (possibly decoded) copy or view of a row.
+     */
+    Vector get(int row);
+
+    /**
+     * Add a row to dest.
+     */
+    void addTo(int row, float[] dest);
+
+    /**
+     * Write a row into dest and return it.
+     */
+    default float[] decode(int row, float[] dest) {
+        Arrays.fill(dest, 0f);
+        addTo(row, dest);
+        return dest;
+    }
+
+    /**
+     * Euclidean norm of a row, as decoded.
+     */
+    double norm(int row);
+
+    /**
+     * Dot products of a query with rows. Implementations may precompute tables for the query,
+     * so the returned function should be reused across rows.
+     */
+    IntToDoubleFunction dots(float[] query);
+
+    /**
+     * Approximate heap size of the stored vectors.
+     */
+    long bytes();
+}
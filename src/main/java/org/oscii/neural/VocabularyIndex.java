@@ -0,0 +1,77 @@
+package org.oscii.neural;
+
+/**
+ * Maps the words of a frozen vocabulary to their rows.
+ * <p>
+ * An open-addressing table with linear probing, at most half full. Each slot holds
+ * row + 1 and the hash code of the word, side by side so that a probe touches one cache
+ * line, and only words with the same hash are compared. It takes 16-32 bytes per word,
+ * where a HashMap of boxed rows takes about 60.
+ */
+class VocabularyIndex {
+    private final String[] vocab;
+    private final int[] table; // slot i: row + 1 at 2i (0 if empty), String.hashCode() at 2i + 1
+    private final int mask;
+
+    VocabularyIndex(String[] vocab) {
+        this.vocab = vocab;
+        int capacity = Integer.highestOneBit(Math.max(2, vocab.length) * 2 - 1) << 1;
+        this.table = new int[2 * capacity];
+        this.mask = capacity - 1;
+        for (int row = 0; row < vocab.length; row++) {
+            final int h = vocab[row].hashCode();
+            int slot = mix(h) & mask;
+            // A repeated word maps to its last row
+            while (table[2 * slot] != 0 && !(table[2 * slot + 1] == h && vocab[table[2 * slot] - 1].equals(vocab[row]))) {
+                slot = (slot + 1) & mask;
+            }
+            table[2 * slot] = row + 1;
+            table[2 * slot + 1] = h;
+        }
+    }
+
+    /**
+     * The row of a word, or -1 if it is not in the vocabulary.
+     */
+    int row(String word) {
+        final int h = word.hashCode();
+        for (int slot = mix(h) & mask; table[2 * slot] != 0; slot = (slot + 1) & mask) {
+            int row = table[2 * slot] - 1;
+            if (table[2 * slot + 1] == h && vocab[row].equals(word)) return row;
+        }
+        return -1;
+    }
+
+    /**
+     * The row of the word in s[start, end), or -1, without creating a String.
+     */
+    int row(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i); // String.hashCode()
+        }
+        for (int slot = mix(h) & mask; table[2 * slot] != 0; slot = (slot + 1) & mask) {
+            int row = table[2 * slot] - 1;
+            if (table[2 * slot + 1] == h && regionEquals(vocab[row], s, start, end)) return row;
+        }
+        return -1;
+    }
+
+    long bytes() {
+        return 4L * table.length;
+    }
+
+    private static boolean regionEquals(String word, CharSequence s, int start, int end) {
+        if (word.length() != end - start) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != s.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    // Spread the bits of String.hashCode(), whose low bits cluster for similar words
+    static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
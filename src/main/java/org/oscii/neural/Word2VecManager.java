@@ -1,5 +1,11 @@
 package org.oscii.neural;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
 import no.uib.cipr.matrix.Vector;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -7,16 +13,25 @@ import org.oscii.concordance.SentenceExample;
 import org.oscii.lex.Lexicon;
 import org.oscii.lex.Order;
 import org.oscii.math.VectorMath;
+import org.oscii.math.VectorWorkspace;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.toList;
 
 /**
  * Manages a collection of language-specific word2vec models.
@@ -32,13 +47,81 @@ public class Word2VecManager {
     private static final int MIN_TOK_LEN = 5; // minimum token length to denote a candidate
     private static final int MAX_RES_LEN = 50; // maximum length of resulting reduced output
 
-    private final Map<String, EmbeddingContainer> models;
+    private static final int CONTEXT_CACHE_SIZE = 4096; // normalized context means kept
+    private static final int SENTENCE_CACHE_SIZE = 100000; // sentence embeddings kept per language
+
+    private static final int MAX_ARITHMETIC_RESULTS = 100;
+    private static final int DEFAULT_ARITHMETIC_VISITS = 20000; // distances per arithmetic query
+
+    private static final Pattern PUNCTUATION = Pattern.compile("\\p{P}");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Map<String, Registration> registered;
+    private final Map<String, EmbeddingContainer> pinned;
+    private final LoadingCache<String, EmbeddingContainer> loaded;
+    private final Map<String, SentenceEmbeddings> sentences;
+    private volatile boolean cacheSentences;
+    // The editor sends the same context with every lookup in a segment
+    private final Cache<ContextKey, float[]> contexts;
+    private volatile int arithmeticVisits = DEFAULT_ARITHMETIC_VISITS;
 
     /**
-     * Constructor.
+     * Constructor. Registered models stay resident once loaded.
      */
     public Word2VecManager() {
-        this.models = new HashMap<>();
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor. Registered models are loaded on first use and the least recently
+     * used ones are unloaded when the resident models exceed budgetBytes.
+     */
+    public Word2VecManager(long budgetBytes) {
+        this.registered = new ConcurrentHashMap<>();
+        this.pinned = new ConcurrentHashMap<>();
+        this.sentences = new ConcurrentHashMap<>();
+        this.contexts = CacheBuilder.newBuilder()
+                .maximumSize(CONTEXT_CACHE_SIZE)
+                .recordStats()
+                .build();
+        final long budgetKB = budgetBytes >> 10;
+        // A single segment, so that the budget and the LRU order are global
+        this.loaded = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(budgetKB)
+                .weigher((String lang, EmbeddingContainer model) -> weightKB(model))
+                .removalListener((RemovalNotification<String, EmbeddingContainer> n) -> {
+                    if (n.wasEvicted()) logger.info("Unloaded {} embeddings ({} MB)", n.getKey(),
+                            n.getValue().sizeInBytes() >> 20);
+                })
+                .recordStats()
+                .build(new CacheLoader<String, EmbeddingContainer>() {
+                    @Override
+                    public EmbeddingContainer load(String lang) throws IOException {
+                        // Registrations change only together with invalidating their models
+                        Registration registration;
+                        synchronized (registered) {
+                            registration = registered.get(lang);
+                        }
+                        if (registration == null) throw new FileNotFoundException("No " + lang + " embeddings");
+                        // Outside the lock; the cache loads each language at most once at a time
+                        EmbeddingContainer model = registration.load(lang);
+                        synchronized (registered) {
+                            if (registered.get(lang) != registration) {
+                                throw new IOException(lang + " embeddings were replaced while loading");
+                            }
+                        }
+                        if (weightKB(model) > budgetKB) {
+                            logger.warn("{} embeddings ({} MB) exceed the memory budget of {} MB",
+                                    lang, model.sizeInBytes() >> 20, budgetKB >> 10);
+                        }
+                        return model;
+                    }
+                });
+    }
+
+    private static int weightKB(EmbeddingContainer model) {
+        return (int) Math.min(Integer.MAX_VALUE, (model.sizeInBytes() >> 10) + 1);
     }
 
     /**
@@ -51,29 +134,121 @@ public class Word2VecManager {
     }
 
     public boolean add(String lang, File file, Set<String> vocab) throws IOException {
-        logger.info("Loading {} embeddings from {}", lang, file);
-        EmbeddingContainer model = EmbeddingContainer.fromBinFile(file, vocab);
-        put(lang, model);
+        return add(lang, file, vocab, EmbeddingContainer.Storage.FLOAT);
+    }
+
+    /**
+     * Registers a model from a binary model file, keeping its vectors in the given storage
+     * mode. The model is read on first use. Throws FileNotFoundException if the file is missing.
+     */
+    public boolean add(String lang, File file, Set<String> vocab, EmbeddingContainer.Storage storage) throws IOException {
+        if (!file.isFile()) throw new FileNotFoundException(file.getPath());
+        synchronized (registered) {
+            pinned.remove(lang);
+            registered.put(lang, new Registration(file, vocab, storage));
+            loaded.invalidate(lang);
+        }
+        invalidate(lang);
         return true;
     }
 
-    private void put(String lang, EmbeddingContainer model) {
-        models.put(lang, model);
+    /**
+     * Adds a model that is already in memory. It is never unloaded.
+     */
+    public void add(String lang, EmbeddingContainer model) {
+        synchronized (registered) {
+            registered.remove(lang);
+            loaded.invalidate(lang);
+            pinned.put(lang, model);
+        }
+        invalidate(lang);
+    }
+
+    /*
+     * Drop what was computed with a replaced model.
+     */
+    private void invalidate(String lang) {
+        sentences.remove(lang);
+        contexts.asMap().keySet().removeIf(key -> key.lang.equals(lang));
+    }
+
+    /*
+     * The model for a supported language, which is loaded at most once at a time.
+     */
+    private EmbeddingContainer model(String lang) {
+        EmbeddingContainer model = pinned.get(lang);
+        if (model != null) return model;
+        try {
+            return loaded.get(lang);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("Could not load " + lang + " embeddings", (IOException) e.getCause());
+        }
+    }
+
+    /**
+     * Loading and eviction counts, resident model sizes and context cache hits.
+     */
+    public Map<String, Number> statistics() {
+        CacheStats stats = loaded.stats();
+        CacheStats contextStats = contexts.stats();
+        long residentBytes = 0;
+        for (EmbeddingContainer model : pinned.values()) residentBytes += model.sizeInBytes();
+        for (EmbeddingContainer model : loaded.asMap().values()) residentBytes += model.sizeInBytes();
+        Map<String, Number> statistics = new LinkedHashMap<>();
+        statistics.put("embeddingModels", registered.size() + pinned.size());
+        statistics.put("embeddingModelsResident", loaded.size() + pinned.size());
+        statistics.put("embeddingResidentMB", residentBytes >> 20);
+        statistics.put("embeddingLoads", stats.loadSuccessCount());
+        statistics.put("embeddingLoadFailures", stats.loadExceptionCount());
+        statistics.put("embeddingLoadSeconds", stats.totalLoadTime() / 1e9);
+        statistics.put("embeddingEvictions", stats.evictionCount());
+        long sentenceBytes = 0;
+        long embeddedSentences = 0;
+        for (SentenceEmbeddings embeddings : sentences.values()) {
+            sentenceBytes += embeddings.bytes();
+            embeddedSentences += embeddings.size();
+        }
+        statistics.put("embeddedSentences", embeddedSentences);
+        statistics.put("embeddedSentencesMB", sentenceBytes >> 20);
+        statistics.put("contextCacheSize", contexts.size());
+        statistics.put("contextCacheHits", contextStats.hitCount());
+        statistics.put("contextCacheMisses", contextStats.missCount());
+        statistics.put("contextCacheHitRate", contextStats.hitRate());
+        return statistics;
+    }
+
+    /**
+     * Whether to keep the embeddings of up to SENTENCE_CACHE_SIZE corpus sentences per
+     * language once their examples are ranked, so that ranking them again costs one dot
+     * product per example. Kept embeddings remain available when their model is unloaded.
+     */
+    public void setCacheSentences(boolean cacheSentences) {
+        this.cacheSentences = cacheSentences;
+        if (!cacheSentences) sentences.clear();
+    }
+
+    /*
+     * The kept sentence embeddings of a language, or null if sentences are not kept.
+     */
+    private SentenceEmbeddings sentenceEmbeddings(String lang, EmbeddingContainer model) {
+        if (!cacheSentences) return null;
+        return sentences.computeIfAbsent(lang, l -> new SentenceEmbeddings(model.dimension(),
+                MIN_SEG_LEN, MIN_TOK_LEN, MAX_RES_LEN, SENTENCE_CACHE_SIZE));
     }
 
     public boolean hasModels() {
-        return !models.isEmpty();
+        return !registered.isEmpty() || !pinned.isEmpty();
     }
 
     public boolean supports(String lang) {
-        return models.containsKey(lang);
+        return registered.containsKey(lang) || pinned.containsKey(lang);
     }
 
     /**
      * Checks whether the query is part of model for given language.
      */
     public boolean containsQuery(String lang, String query) {
-        return supports(lang) && models.get(lang).contains(query);
+        return supports(lang) && model(lang).contains(query);
     }
 
     /**
@@ -81,7 +256,7 @@ public class Word2VecManager {
      * model for given language.
      */
     public boolean containsDegradedQuery(String lang, String query) {
-        return supports(lang) && models.get(lang).contains(Lexicon.degrade(query));
+        return supports(lang) && model(lang).contains(Lexicon.degrade(query));
     }
 
     /**
@@ -89,10 +264,14 @@ public class Word2VecManager {
      * for a given language. Throws UnknownWordException if not.
      */
     public String getMatchingQuery(String lang, String query) {
-        if (containsQuery(lang, query)) {
+        return supports(lang) ? matchingQuery(model(lang), query) : null;
+    }
+
+    private static String matchingQuery(EmbeddingContainer model, String query) {
+        if (model.contains(query)) {
             return query;
 
-        } else if (containsDegradedQuery(lang, query)) {
+        } else if (model.contains(Lexicon.degrade(query))) {
             return Lexicon.degrade(query);
 
         } else {
@@ -112,20 +291,27 @@ public class Word2VecManager {
         if (!supports(lang) || context.length() == 0 || concordances.size() == 0) {
             return false;
         }
-        final EmbeddingContainer model = models.get(lang);
-        // retrieve and score context; replaceAll() strips all punctuation
-        String[] contextTokens = reduceTokens(context.replaceAll("\\p{P}", "").split("\\s+"), MIN_SEG_LEN, MIN_TOK_LEN, MAX_RES_LEN);
-        Vector contextMean = model.getMean(contextTokens);
-        logger.info("context={} ({})", contextTokens, contextTokens.length);
+        final EmbeddingContainer model = model(lang);
+        final SentenceEmbeddings indexed = sentenceEmbeddings(lang, model);
+        final ContextTokenizer tokenizer = ContextTokenizer.get();
+        final float[] normalizedContext = normalizedContext(lang, model, tokenizer.split(context));
+        final VectorWorkspace workspace = VectorWorkspace.get();
+        final int mark = workspace.mark();
+        final float[] sentenceMean = workspace.take(model.dimension());
         // iterate over concordance results
         concordances.forEach(ex -> {
-            String[] tokens = reduceTokens(ex.sentence.tokens, MIN_SEG_LEN, MIN_TOK_LEN, MAX_RES_LEN);
-            Vector tokensMean = model.getMean(tokens);
-            logger.debug("means: tokens=[{},{},{},...] context=[{},{},{},...]",
-                    tokensMean.get(0), tokensMean.get(1), tokensMean.get(2),
-                    contextMean.get(0), contextMean.get(1), contextMean.get(2));
             try {
-                double sim = VectorMath.cosineSimilarity(tokensMean, contextMean);
+                double sim;
+                // Sentences of translation memories are numbered apart from the indexed corpus
+                if (indexed != null && ex.memoryId <= 0 && ex.sentence.getId() >= 0) {
+                    // NaN for a zero context or a sentence without known words
+                    sim = indexed.similarity(ex.sentence, normalizedContext, model);
+                } else {
+                    int n = tokenizer.tokens(ex.sentence.tokens).reduce(model, MIN_SEG_LEN, MIN_TOK_LEN, MAX_RES_LEN);
+                    model.mean(tokenizer.rows(), n, sentenceMean);
+                    float norm = VectorWorkspace.normalize(sentenceMean);
+                    sim = norm == 0f ? Double.NaN : VectorWorkspace.dot(sentenceMean, normalizedContext);
+                }
                 if (Double.isNaN(sim)) {
                     sim = -2.0; // Give it a low score.
                 } else if (ex.memoryId == memoryId) {
@@ -142,12 +328,32 @@ public class Word2VecManager {
             }
             logger.debug("distance: {}", ex.similarity);
         });
+        workspace.release(mark);
         // rerank according to word2vec similarities
         Collections.sort(concordances, Order.bySimilarity);
         logger.info("top similarity: {}", concordances.get(0).similarity);
         return true;
     }
 
+    /*
+     * The unit mean of the reduced tokens of a context, which is computed once per language
+     * and distinct context. A context without known words has a mean of NaNs, whose
+     * similarities are NaN. The result is shared and must not be modified.
+     */
+    private float[] normalizedContext(String lang, EmbeddingContainer model, ContextTokenizer tokens) {
+        final ContextKey key = new ContextKey(lang, tokens.fingerprint());
+        float[] normalized = contexts.getIfPresent(key);
+        if (normalized != null) return normalized;
+        int known = tokens.reduce(model, MIN_SEG_LEN, MIN_TOK_LEN, MAX_RES_LEN);
+        logger.info("context: {} known of {} tokens", known, tokens.size());
+        normalized = model.mean(tokens.rows(), known, new float[model.dimension()]);
+        if (VectorMath.normalize(normalized, 0, normalized.length) == 0f) {
+            Arrays.fill(normalized, Float.NaN); // no similarity to a zero context
+        }
+        contexts.put(key, normalized);
+        return normalized;
+    }
+
     /**
      * Returns the averaged raw word vector (n-dimensional array of
      * doubles) for given query and language. Applies tokenization
@@ -155,9 +361,10 @@ public class Word2VecManager {
      */
     public Vector getRawVector(String lang, String query) throws UnsupportedLanguageException {
         if (!supports(lang)) throw new UnsupportedLanguageException(lang);
-        String[] bagOfWords = getBagOfWords(query.replaceAll("\\p{P}", "").split("\\s+"));
-        logger.debug("BOW: {}", Arrays.toString(bagOfWords));
-        return models.get(lang).getMean(bagOfWords);
+        final EmbeddingContainer model = model(lang);
+        ContextTokenizer tokenizer = ContextTokenizer.get().split(query);
+        int known = tokenizer.bagOfWords(model);
+        return new FloatVector(model.mean(tokenizer.rows(), known, new float[model.dimension()]), false);
     }
 
     /**
@@ -165,7 +372,7 @@ public class Word2VecManager {
      */
     public Vector getMeanVector(String lang, String[] query) throws UnsupportedLanguageException {
         if (!supports(lang)) throw new UnsupportedLanguageException(lang);
-        return models.get(lang).getMean(query);
+        return model(lang).getMean(query);
     }
 
     /**
@@ -193,12 +400,157 @@ public class Word2VecManager {
         return VectorMath.cosineSimilarity(v1, v2);
     }
 
+    /**
+     * Similarities of a query to several candidates in one batched call, each as getSimilarity()
+     * computes it for the pair "query|||candidate".
+     */
+    public double[] getSimilarities(String lang, String query, List<String> candidates)
+            throws UnsupportedLanguageException {
+        return getSimilarityMatrix(lang, Collections.singletonList(query), candidates)[0];
+    }
+
+    /**
+     * Cosine similarities between several queries and several candidates: entry [i][j] is
+     * the similarity of the pair "queries[i]|||candidates[j]", which is -1 if either term is
+     * unknown after degrading. Mean vectors are computed once each and all pairs are scored
+     * by a blocked float kernel.
+     */
+    public double[][] getSimilarityMatrix(String lang, List<String> queries, List<String> candidates)
+            throws UnsupportedLanguageException {
+        if (!supports(lang)) throw new UnsupportedLanguageException(lang);
+        final EmbeddingContainer model = model(lang);
+        final int dimension = model.dimension();
+        final boolean[] knownQueries = new boolean[queries.size()];
+        final boolean[] knownCandidates = new boolean[candidates.size()];
+        float[] a = normalizedMeans(lang, model, queries, knownQueries);
+        float[] b = normalizedMeans(lang, model, candidates, knownCandidates);
+        float[] dots = VectorMath.dotProducts(a, queries.size(), b, candidates.size(), dimension);
+        double[][] similarities = new double[queries.size()][candidates.size()];
+        for (int i = 0; i < knownQueries.length; i++) {
+            for (int j = 0; j < knownCandidates.length; j++) {
+                similarities[i][j] = knownQueries[i] && knownCandidates[j] ? dots[i * knownCandidates.length + j] : -1.0;
+            }
+        }
+        return similarities;
+    }
+
+    /*
+     * Unit-length mean vectors of matching queries as rows of a matrix; unknown queries are zero rows.
+     */
+    private float[] normalizedMeans(String lang, EmbeddingContainer model, List<String> queries, boolean[] known) {
+        final int dimension = model.dimension();
+        final ContextTokenizer tokenizer = ContextTokenizer.get();
+        final VectorWorkspace workspace = VectorWorkspace.get();
+        final int mark = workspace.mark();
+        final float[] mean = workspace.take(dimension);
+        float[] means = new float[queries.size() * dimension];
+        for (int i = 0; i < known.length; i++) {
+            String query = getMatchingQuery(lang, queries.get(i));
+            if (query == null) continue;
+            known[i] = true;
+            int n = tokenizer.split(query).bagOfWords(model);
+            System.arraycopy(model.mean(tokenizer.rows(), n, mean), 0, means, i * dimension, dimension);
+            VectorMath.normalize(means, i * dimension, dimension);
+        }
+        workspace.release(mark);
+        return means;
+    }
+
     /**
      * The K nearest words to a query vector in a language.
      */
-    public List<String> nearestNeighbors(String lang, float[] query, int k) {
-        // TODO
-        return null;
+    public List<Neighbor> nearestNeighbors(String lang, float[] query, int k) throws UnsupportedLanguageException {
+        if (!supports(lang)) throw new UnsupportedLanguageException(lang);
+        return model(lang).nearest(new FloatVector(query, false), k, Collections.emptySet());
+    }
+
+    /**
+     * The K nearest words to the mean vector of a word or phrase, excluding the words of the query.
+     * Unknown words are degraded (e.g. lowercased) as in getMatchingQuery, or else ignored.
+     * Throws UnknownWordException if no word of the query is known.
+     */
+    public List<Neighbor> neighbors(String lang, String query, int k)
+            throws UnsupportedLanguageException, UnknownWordException {
+        if (!supports(lang)) throw new UnsupportedLanguageException(lang);
+        List<Neighbor> neighbors = neighbors(model(lang), query, k);
+        if (neighbors == null) throw new UnknownWordException(query);
+        return neighbors;
+    }
+
+    /**
+     * Nearest neighbors for several queries, which are searched in parallel. The entry of a
+     * query without known words is null, unlike that of a query without neighbors.
+     */
+    public List<List<Neighbor>> neighbors(String lang, List<String> queries, int k) throws UnsupportedLanguageException {
+        if (!supports(lang)) throw new UnsupportedLanguageException(lang);
+        final EmbeddingContainer model = model(lang);
+        return queries.parallelStream().map(q -> neighbors(model, q, k)).collect(toList());
+    }
+
+    /* Neighbors of the known words of a query, or null if there are none. */
+    private static List<Neighbor> neighbors(EmbeddingContainer model, String query, int k) {
+        String[] bagOfWords = bagOfWords(query);
+        List<String> known = new ArrayList<>(bagOfWords.length);
+        for (String word : bagOfWords) {
+            String match = matchingQuery(model, word);
+            if (match != null) known.add(match);
+        }
+        if (known.isEmpty()) return null;
+        Set<String> excluded = new HashSet<>(known);
+        excluded.addAll(Arrays.asList(bagOfWords));
+        return model.nearest(model.getMean(known.toArray(new String[known.size()])), k, excluded);
+    }
+
+    /**
+     * Words nearest to a - b + c, excluding a, b and c; e.g. king - man + woman is near queen.
+     */
+    public List<Neighbor> analogy(String lang, String a, String b, String c, int k)
+            throws UnsupportedLanguageException, UnknownWordException {
+        return arithmetic(lang, Arrays.asList(a, c), Collections.singletonList(b), k);
+    }
+
+    /**
+     * Words nearest to the sum of the unit vectors of added words minus those of subtracted
+     * words, excluding all of them. Words are degraded if needed. At most 100 neighbors are
+     * returned, and they are approximate, since the neighbor index computes a bounded number
+     * of distances; see {@link #setArithmeticVisits(int)}.
+     */
+    public List<Neighbor> arithmetic(String lang, List<String> added, List<String> subtracted, int k)
+            throws UnsupportedLanguageException, UnknownWordException {
+        if (!supports(lang)) throw new UnsupportedLanguageException(lang);
+        final EmbeddingContainer model = model(lang);
+        final VectorWorkspace workspace = VectorWorkspace.get();
+        final int mark = workspace.mark();
+        try {
+            final float[] sum = workspace.take(model.dimension());
+            final float[] row = workspace.take(model.dimension());
+            Set<String> inputs = new HashSet<>();
+            accumulate(lang, model, added, 1f, sum, row, inputs);
+            accumulate(lang, model, subtracted, -1f, sum, row, inputs);
+            return model.nearest(new FloatVector(sum, false), Math.min(k, MAX_ARITHMETIC_RESULTS), inputs, arithmeticVisits);
+        } finally {
+            workspace.release(mark);
+        }
+    }
+
+    private void accumulate(String lang, EmbeddingContainer model, List<String> words, float sign,
+                            float[] sum, float[] row, Set<String> inputs) throws UnknownWordException {
+        for (String word : words) {
+            String match = getMatchingQuery(lang, word);
+            if (match == null) throw new UnknownWordException(word);
+            inputs.add(match);
+            model.decode(model.row(match), row);
+            VectorWorkspace.normalize(row);
+            VectorWorkspace.add(sum, sign, row);
+        }
+    }
+
+    /**
+     * Bound the distances computed per arithmetic query, trading recall for latency.
+     * Integer.MAX_VALUE makes the search exact.
+     */
+    public void setArithmeticVisits(int maxVisits) {
+        this.arithmeticVisits = maxVisits;
     }
 
     /**
@@ -229,6 +581,13 @@ public class Word2VecManager {
         }
     }
 
+    /*
+     * Bag of words of a query with punctuation removed.
+     */
+    private static String[] bagOfWords(String query) {
+        return getBagOfWords(WHITESPACE.split(PUNCTUATION.matcher(query).replaceAll("")));
+    }
+
     /**
      * Returns bag-of-words for given token sequence.
      */
@@ -241,7 +600,65 @@ public class Word2VecManager {
     }
 
     public List<String> getVocabulary(String lang) {
-        return models.get(lang).vocab();
+        return model(lang).vocab();
+    }
+
+    /*
+     * A model file that is read on first use.
+     */
+    private static class Registration {
+        final File file;
+        final Set<String> vocab;
+        final EmbeddingContainer.Storage storage;
+
+        Registration(File file, Set<String> vocab, EmbeddingContainer.Storage storage) {
+            this.file = file;
+            this.vocab = vocab;
+            this.storage = storage;
+        }
+
+        EmbeddingContainer load(String lang) throws IOException {
+            logger.info("Loading {} embeddings from {}", lang, file);
+            EmbeddingContainer model = EmbeddingContainer.fromBinFile(file, vocab);
+            File indexFile = NeighborIndex.fileFor(file);
+            if (vocab == null && indexFile.exists()) {
+                if (indexFile.lastModified() < file.lastModified()) {
+                    logger.warn("Ignoring {}, which is older than {}", indexFile, file);
+                } else {
+                    logger.info("Loading {} neighbor index from {}", lang, indexFile);
+                    model.setNeighborIndex(NeighborIndex.read(indexFile, model.vocabSize()));
+                }
+            }
+            if (storage != EmbeddingContainer.Storage.FLOAT) {
+                model = model.withStorage(storage);
+            }
+            return model;
+        }
+    }
+
+    /*
+     * A context by language and token fingerprint.
+     */
+    private static class ContextKey {
+        final String lang;
+        final long fingerprint;
+
+        ContextKey(String lang, long fingerprint) {
+            this.lang = lang;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContextKey)) return false;
+            ContextKey other = (ContextKey) o;
+            return fingerprint == other.fingerprint && lang.equals(other.lang);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * lang.hashCode() + Long.hashCode(fingerprint);
+        }
     }
 
     /**
@@ -255,6 +672,17 @@ public class Word2VecManager {
         }
     }
 
+    /**
+     * Exception when a word is not in a model, even after degrading.
+     */
+    public static class UnknownWordException extends Exception {
+        private static final long serialVersionUID = 3081466286912417035L;
+
+        public UnknownWordException(String word) {
+            super(String.format("Unknown word '%s'", word));
+        }
+    }
+
     /**
      * Exception when a query is malformed.
      */
@@ -0,0 +1,70 @@
+package org.oscii.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscii.concordance.PartitionedAlignedCorpus;
+import org.oscii.concordance.SentenceExample;
+import org.oscii.concordance.SuffixArrayAlignedCorpus;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MemoryProtocolTest {
+    private PartitionedAlignedCorpus corpus;
+
+    @Before
+    public void create() {
+        corpus = new PartitionedAlignedCorpus(new SuffixArrayAlignedCorpus());
+    }
+
+    @After
+    public void close() {
+        corpus.close();
+    }
+
+    private static MemoryProtocol.Segment segment(String source, String target, String alignment) {
+        MemoryProtocol.Segment s = new MemoryProtocol.Segment();
+        s.source = source;
+        s.target = target;
+        s.alignment = alignment;
+        return s;
+    }
+
+    private static MemoryProtocol.Request append(int memory, MemoryProtocol.Segment... segments) {
+        MemoryProtocol.Request r = new MemoryProtocol.Request();
+        r.systemId = "acme";
+        r.memory = memory;
+        r.source = "en";
+        r.target = "es";
+        r.segments = Arrays.asList(segments);
+        return r;
+    }
+
+    @Test
+    public void testRespond() {
+        MemoryProtocol protocol = new MemoryProtocol(corpus);
+
+        MemoryProtocol.Response response = protocol.respond(append(3,
+                segment("the  red dog ", "el perro rojo", "0-0 1-2 2-1"),
+                segment("a dog", "un perro", null)));
+        assertNull(response.error);
+        assertEquals(2, response.appended);
+        List<SentenceExample> examples = corpus.examples("dog", "en", "es", "acme", 10, 3, true);
+        assertEquals(2, examples.size());
+        assertEquals(3, examples.get(0).memoryId);
+        assertEquals(1, examples.get(0).targetStart);
+
+        // Nothing is appended from an invalid request
+        assertEquals("Invalid segment", protocol.respond(append(3, segment("a cat", "un gato", ""), segment("", "x", ""))).error);
+        assertEquals("Invalid alignment: 0-x", protocol.respond(append(3, segment("a cat", "un gato", "0-x"))).error);
+        MemoryProtocol.Request blank = append(3, segment("a cat", "un gato", ""));
+        blank.target = " ";
+        assertEquals("Invalid request", protocol.respond(blank).error);
+        assertEquals("Memory ids must be positive", protocol.respond(append(0, segment("a cat", "un gato", ""))).error);
+        assertEquals(0, corpus.examples("cat", "en", "es", "acme", 10, 3, true).size());
+    }
+}
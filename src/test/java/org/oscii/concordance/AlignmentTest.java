@@ -0,0 +1,79 @@
+package org.oscii.concordance;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AlignmentTest {
+
+    @Test
+    public void testParse() {
+        Alignment a = Alignment.parse(" 0-1 2-1\t1-0  2-2 ", 3, 3);
+        assertArrayEquals(new int[][]{{1}, {0}, {1, 2}}, a.toArray());
+        assertArrayEquals(new int[][]{{1}, {0, 2}, {2}}, a.reverse().toArray());
+        assertEquals(0, a.oneToOne(1));
+        assertEquals(-1, a.oneToOne(0)); // target 1 has two links
+        assertEquals(-1, a.oneToOne(2));
+        assertEquals(1, a.reverse().oneToOne(0));
+        assertEquals(2, a.count(2));
+        assertEquals(2, a.link(2, 1));
+    }
+
+    @Test
+    public void testIgnoresLinksOutside() {
+        Alignment a = Alignment.parse("0-0 1-5 7-1", 2, 2);
+        assertArrayEquals(new int[][]{{0}, {}}, a.toArray());
+        assertArrayEquals(new int[][]{{}, {}}, Alignment.parse("", 2, 2).toArray());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testMalformed() {
+        Alignment.parse("0-1 2-", 3, 3);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testMalformedSeparator() {
+        Alignment.parse("0-1-2", 3, 3);
+    }
+
+    @Test
+    public void testMatchesSplitLinks() throws IOException {
+        String prefix = "data/europarl-10k/europarl.en-es.";
+        Iterator<String> sources = Files.lines(Paths.get(prefix + "en")).limit(500).iterator();
+        Iterator<String> targets = Files.lines(Paths.get(prefix + "es")).limit(500).iterator();
+        Iterator<String> aligns = Files.lines(Paths.get(prefix + "align")).limit(500).iterator();
+        while (aligns.hasNext()) {
+            String[] s = sources.next().split("\\s+"), t = targets.next().split("\\s+");
+            String line = aligns.next();
+            List<List<Integer>> expected = new ArrayList<>();
+            for (int i = 0; i < s.length; i++) expected.add(new ArrayList<>());
+            for (String link : line.split("\\s+")) {
+                String[] parts = link.split("-");
+                expected.get(Integer.parseInt(parts[0])).add(Integer.parseInt(parts[1]));
+            }
+            Alignment a = Alignment.parse(line, s.length, t.length);
+            for (int i = 0; i < s.length; i++) {
+                assertEquals(expected.get(i).size(), a.count(i));
+                for (int k = 0; k < a.count(i); k++) {
+                    assertEquals((int) expected.get(i).get(k), a.link(i, k));
+                }
+            }
+            AlignedSentence sentence = AlignedSentence.parse(s, t, line, "en", "es").get(0);
+            for (int i = 0; i < s.length; i++) {
+                String aligned = sentence.aligned(i);
+                if (expected.get(i).size() != 1) {
+                    assertNull(aligned);
+                }
+            }
+        }
+    }
+}
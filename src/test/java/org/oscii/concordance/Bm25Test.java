@@ -0,0 +1,31 @@
+package org.oscii.concordance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Bm25Test {
+    @Test
+    public void testScore() {
+        // Term 1 in 1 of 10 sentences, term 2 in 5, each sentence 4 tokens on average
+        Bm25 bm25 = new Bm25(new int[]{2, 1, 2}, new int[]{5, 1, 5}, 10, 4.0);
+        assertEquals(2, bm25.size());
+        IntColumn tokens = IntColumn.wrap(new int[]{1, 3, 4, 5, 2, 3, 4, 5, 3, 3, 3, 3});
+        double rare = bm25.score(tokens, 0, 4);
+        double common = bm25.score(tokens, 4, 8);
+        assertEquals(Math.log(1 + 9.5 / 1.5), rare, 1e-9);
+        assertTrue(rare > common);
+        assertEquals(0.0, bm25.score(tokens, 8, 12), 0.0);
+        // Term frequency saturates
+        IntColumn repeated = IntColumn.wrap(new int[]{1, 1, 3, 3});
+        double twice = bm25.score(repeated, 0, 4);
+        assertTrue(twice > rare && twice < 2 * rare);
+    }
+
+    @Test
+    public void testFrequenciesCapped() {
+        Bm25 bm25 = new Bm25(new int[]{1}, new int[]{100}, 10, 4.0);
+        assertEquals(Math.log(1 + 0.5 / 10.5), bm25.score(IntColumn.wrap(new int[]{1, 2, 3, 4}), 0, 4), 1e-9);
+    }
+}
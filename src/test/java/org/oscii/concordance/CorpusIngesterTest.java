@@ -0,0 +1,67 @@
+package org.oscii.concordance;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CorpusIngesterTest {
+    private static final String CORPUS = "data/europarl-10k/europarl";
+
+    @Test
+    public void testPairs() throws IOException {
+        List<String[]> pairs = AlignedCorpus.pairs(CORPUS, Arrays.asList("en", "es", "fr", "de"));
+        assertEquals(2, pairs.size());
+        assertArrayEquals(new String[]{"en", "es"}, pairs.get(0));
+        assertArrayEquals(new String[]{"en", "fr"}, pairs.get(1));
+        assertEquals(1, AlignedCorpus.pairs(CORPUS, Arrays.asList("en", "fr")).size());
+    }
+
+    @Test
+    public void testMatchesSequentialReading() throws IOException {
+        final int max = 2 * CorpusIngester.BATCH_SIZE + 17;
+        IndexedAlignedCorpus sequential = new IndexedAlignedCorpus();
+        sequential.read(CORPUS, "en", "es", max);
+        sequential.read(CORPUS, "en", "fr", max);
+        CorpusStore store = new CorpusStore();
+        new CorpusIngester(3).ingest(store, CORPUS, AlignedCorpus.pairs(CORPUS, Arrays.asList("en", "es", "fr")), max);
+
+        for (String language : new String[]{"en", "es", "fr"}) {
+            List<AlignedSentence> expected = sequential.sentences.get(language);
+            List<AlignedSentence> actual = CorpusStoreTest.sentences(store, language);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                AlignedSentence e = expected.get(i), a = actual.get(i);
+                assertArrayEquals(e.tokens, a.tokens);
+                assertArrayEquals(e.getAlignment(), a.getAlignment());
+                assertEquals(e.aligned.language, a.aligned.language);
+                assertEquals(e.aligned.getId(), a.aligned.getId());
+            }
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testMalformedAlignment() throws IOException {
+        Path dir = Files.createTempDirectory("corpus");
+        dir.toFile().deleteOnExit();
+        String prefix = dir.resolve("tiny").toString();
+        write(prefix + ".en-es.en", "a house", "the house");
+        write(prefix + ".en-es.es", "una casa", "la casa");
+        write(prefix + ".en-es.align", "0-0 1-1", "0-0 1+1");
+        new CorpusStore().read(prefix, "en", "es", 0);
+    }
+
+    private static void write(String path, String... lines) throws IOException {
+        File file = new File(path);
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
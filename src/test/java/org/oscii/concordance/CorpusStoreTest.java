@@ -0,0 +1,57 @@
+package org.oscii.concordance;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CorpusStoreTest {
+    private static final String CORPUS = "data/europarl-10k/europarl";
+
+    @Test
+    public void testViewsMatchParsedSentences() throws IOException {
+        IndexedAlignedCorpus parsed = new IndexedAlignedCorpus();
+        parsed.read(CORPUS, "en", "es", 500);
+        parsed.read(CORPUS, "en", "fr", 500);
+        CorpusStore store = new CorpusStore();
+        store.read(CORPUS, "en", "es", 500);
+        store.read(CORPUS, "en", "fr", 500);
+        store.trim();
+
+        for (String language : new String[]{"en", "es", "fr"}) {
+            List<AlignedSentence> expected = parsed.sentences.get(language);
+            List<AlignedSentence> actual = sentences(store, language);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                AlignedSentence e = expected.get(i), a = actual.get(i);
+                assertEquals(i, a.getId());
+                assertArrayEquals(e.tokens, a.tokens);
+                assertArrayEquals(e.delimiters, a.delimiters);
+                assertArrayEquals(e.getAlignment(), a.getAlignment());
+                assertEquals(e.aligned.language, a.aligned.language);
+                assertEquals(e.aligned.getId(), a.aligned.getId());
+                assertArrayEquals(e.aligned.tokens, a.aligned.tokens);
+                assertArrayEquals(e.aligned.getAlignment(), a.aligned.getAlignment());
+                for (int j = 0; j < e.tokens.length; j++) {
+                    String translation = e.aligned(j);
+                    int id = store.alignedToken(language, i, j);
+                    assertEquals(translation, id == CorpusStore.END ? null : store.word(id));
+                }
+            }
+        }
+        assertEquals(CorpusStore.END, store.id("notaword"));
+        assertEquals("Parliament", store.word(store.id("Parliament")));
+    }
+
+    // Views of all sentences of a language
+    static List<AlignedSentence> sentences(CorpusStore store, String language) {
+        return IntStream.range(0, store.size(language))
+                .mapToObj(i -> store.sentence(language, i))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,87 @@
+package org.oscii.concordance;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.oscii.lex.Expression;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MappedAlignedCorpusTest {
+    private static final String CORPUS = "data/europarl-10k/europarl";
+
+    private static SuffixArrayAlignedCorpus built;
+    private static MappedAlignedCorpus mapped;
+
+    @BeforeClass
+    public static void build() throws IOException {
+        built = new SuffixArrayAlignedCorpus();
+        built.read(CORPUS, "en", "es", 2000);
+        built.read(CORPUS, "en", "fr", 2000);
+        built.tally();
+        File file = File.createTempFile("europarl", ".lxc");
+        file.deleteOnExit();
+        MappedAlignedCorpus.write(built, file);
+        mapped = MappedAlignedCorpus.map(file);
+    }
+
+    @Test
+    public void testVocabulary() {
+        CorpusStore expected = built.store(), actual = mapped.store();
+        assertEquals(expected.vocabularySize(), actual.vocabularySize());
+        for (int id = 1; id < expected.vocabularySize(); id++) {
+            String word = expected.word(id);
+            assertEquals(word, actual.word(id));
+            assertEquals(id, actual.id(word));
+        }
+        assertEquals(CorpusStore.END, actual.id("notaword"));
+        assertEquals(CorpusStore.END, actual.id(""));
+    }
+
+    @Test
+    public void testSentences() {
+        for (String language : new String[]{"en", "es", "fr"}) {
+            List<AlignedSentence> expected = CorpusStoreTest.sentences(built.store(), language);
+            List<AlignedSentence> actual = CorpusStoreTest.sentences(mapped.store(), language);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i += 7) {
+                assertArrayEquals(expected.get(i).tokens, actual.get(i).tokens);
+                assertArrayEquals(expected.get(i).getAlignment(), actual.get(i).getAlignment());
+                assertArrayEquals(expected.get(i).aligned.tokens, actual.get(i).aligned.tokens);
+            }
+        }
+    }
+
+    @Test
+    public void testQueries() {
+        for (String query : new String[]{"Parliament", "the European Parliament", "sesión", "séance"}) {
+            for (String[] pair : new String[][]{{"en", "es"}, {"en", "fr"}, {"es", "en"}, {"fr", "en"}}) {
+                assertEquals(positions(built.examples(query, pair[0], pair[1], 0, 0, false)),
+                        positions(mapped.examples(query, pair[0], pair[1], 0, 0, false)));
+            }
+        }
+        for (String source : new String[]{"Parliament", "the", "European Parliament"}) {
+            for (String[] translation : new String[][]{{"Parlamento", "es"}, {"Parlement", "fr"}, {"el", "es"},
+                    {"Parlamento Europeo", "es"}}) {
+                Expression target = new Expression(translation[0], translation[1]);
+                assertEquals(built.translationFrequencies(new Expression(source, "en")).apply(target),
+                        mapped.translationFrequencies(new Expression(source, "en")).apply(target), 0.0);
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws IOException {
+        mapped.read(CORPUS, "en", "es", 10);
+    }
+
+    private static List<String> positions(List<SentenceExample> examples) {
+        return examples.stream().map(e -> e.sentence.getId() + ":" + e.sourceStart + ":" + e.targetStart)
+                .collect(Collectors.toList());
+    }
+}
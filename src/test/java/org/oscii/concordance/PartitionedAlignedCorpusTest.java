@@ -0,0 +1,166 @@
+package org.oscii.concordance;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedAlignedCorpusTest {
+    private static final String CORPUS = "data/europarl-10k/europarl";
+
+    private static PartitionedAlignedCorpus corpus;
+
+    @BeforeClass
+    public static void read() throws IOException {
+        SuffixArrayAlignedCorpus background = new SuffixArrayAlignedCorpus();
+        background.read(CORPUS, "en", "es", 2000);
+        background.tally();
+        corpus = new PartitionedAlignedCorpus(background);
+        corpus.putMemory("acme", 7, memory("the session is open", "la sesión está abierta",
+                "the session is closed", "la sesión está cerrada",
+                "a new session", "una nueva sesión"));
+    }
+
+    @AfterClass
+    public static void close() {
+        corpus.close();
+    }
+
+    private static SuffixArrayAlignedCorpus memory(String... pairs) {
+        SuffixArrayAlignedCorpus memory = new SuffixArrayAlignedCorpus();
+        for (int i = 0; i < pairs.length; i += 2) {
+            String[] source = pairs[i].split(" "), target = pairs[i + 1].split(" ");
+            memory.store().add(source, target, "0-0 1-1 2-2 3-3", "en", "es");
+        }
+        memory.tally();
+        return memory;
+    }
+
+    @Test
+    public void testMemoryFirst() {
+        List<SentenceExample> examples = corpus.examples("session", "en", "es", "acme", 10, 7, true);
+        assertEquals(10, examples.size());
+        for (int i = 0; i < examples.size(); i++) {
+            assertEquals(i < 3 ? 7 : -1, examples.get(i).memoryId);
+        }
+        assertEquals("session", examples.get(0).sentence.tokens[examples.get(0).sourceStart]);
+        // Other memories and systems only see the background
+        for (SentenceExample ex : corpus.examples("session", "en", "es", "other", 10, 7, true)) {
+            assertEquals(-1, ex.memoryId);
+        }
+        for (SentenceExample ex : corpus.examples("session", "en", "es", "acme", 10, 8, true)) {
+            assertEquals(-1, ex.memoryId);
+        }
+        assertNull(corpus.getMemory("acme", 0));
+    }
+
+    @Test
+    public void testBudget() {
+        // The memory fills the budget, so the background is not searched
+        List<SentenceExample> examples = corpus.examples("session", "en", "es", "acme", 2, 7, true);
+        assertEquals(2, examples.size());
+        assertTrue(examples.stream().allMatch(ex -> ex.memoryId == 7));
+        try {
+            corpus.setCandidateBudget(20);
+            assertEquals(20, corpus.getBackground().getCandidateBudget());
+            examples = corpus.examples("the", "en", "es", "acme", 0, 7, false);
+            assertEquals(20, examples.size());
+            assertEquals(2, examples.stream().filter(ex -> ex.memoryId == 7).count());
+        } finally {
+            corpus.setCandidateBudget(AlignedCorpus.DEFAULT_CANDIDATE_BUDGET);
+        }
+    }
+
+    @Test
+    public void testAppend() {
+        assertTrue(memoryExamples("confirmed", "en", "es", 10, 9).isEmpty());
+        corpus.append("acme", 9, pairs("a confirmed segment", "un segmento confirmado",
+                "another confirmed segment", "otro segmento confirmado"));
+        // Searchable at once, in both directions
+        List<SentenceExample> examples = memoryExamples("confirmed segment", "en", "es", 10, 9);
+        assertEquals(2, examples.size());
+        assertTrue(examples.stream().allMatch(ex -> ex.sourceLength == 2));
+        assertEquals("segmento", examples.get(0).sentence.aligned.tokens[examples.get(0).targetStart]);
+        assertEquals(2, memoryExamples("segmento", "es", "en", 10, 9).size());
+
+        MemoryPartition memory = corpus.getMemory("acme", 9);
+        assertEquals(2, memory.deltaSize());
+        assertEquals(2, memory.merge());
+        assertEquals(0, memory.deltaSize());
+        assertEquals(0, memory.merge());
+        assertTrue(memory.queueMerge());
+        assertFalse(memory.queueMerge());
+        memory.merge();
+        assertTrue(memory.queueMerge());
+        memory.merge();
+        corpus.append("acme", 9, pairs("a third confirmed segment", "un tercer segmento confirmado"));
+        assertEquals(3, memoryExamples("confirmed segment", "en", "es", 10, 9).size());
+        assertEquals(2, memory.main().store().size("en"));
+        // The most recent are kept within the budget
+        examples = memoryExamples("confirmed segment", "en", "es", 1, 9);
+        assertEquals(1, examples.size());
+        assertEquals("third", examples.get(0).sentence.tokens[1]);
+    }
+
+    @Test
+    public void testConcurrentAppends() throws InterruptedException {
+        final int batches = 200;
+        Thread appender = new Thread(() -> {
+            for (int b = 0; b < batches; b++) {
+                corpus.append("acme", 11, pairs("segment number " + b, "segmento número " + b));
+                if (b % 50 == 49) corpus.mergeAll();
+            }
+        });
+        appender.start();
+        int last = 0;
+        while (appender.isAlive()) {
+            int found = memoryExamples("number", "en", "es", 0, 11).size();
+            assertTrue(found >= last);
+            last = found;
+        }
+        appender.join();
+        assertEquals(batches, memoryExamples("number", "en", "es", 0, 11).size());
+        corpus.mergeAll();
+        assertEquals(0, corpus.getMemory("acme", 11).deltaSize());
+        assertEquals(batches, memoryExamples("number", "en", "es", 0, 11).size());
+    }
+
+    // Examples of a memory, without those of the background
+    private static List<SentenceExample> memoryExamples(String query, String source, String target, int max, int memoryId) {
+        List<SentenceExample> examples = new ArrayList<>();
+        for (SentenceExample ex : corpus.examples(query, source, target, "acme", max, memoryId, true)) {
+            if (ex.memoryId == memoryId) examples.add(ex);
+        }
+        return examples;
+    }
+
+    private static List<AlignedSentence> pairs(String... pairs) {
+        List<AlignedSentence> sentences = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            String[] source = pairs[i].split(" "), target = pairs[i + 1].split(" ");
+            sentences.add(AlignedSentence.parse(source, target, "0-0 1-1 2-2 3-3", "en", "es").get(0));
+        }
+        return sentences;
+    }
+
+    @Test
+    public void testShortlistKeepsMemory() {
+        List<SentenceExample> examples = corpus.examples("session", "en", "es", "acme", 30, 7, true);
+        try {
+            corpus.setShortlistSize(5);
+            List<SentenceExample> shortlist = corpus.shortlist("resumption of the session", "en", examples);
+            assertEquals(5, shortlist.size());
+            assertEquals(3, shortlist.stream().filter(ex -> ex.memoryId == 7).count());
+        } finally {
+            corpus.setShortlistSize(AlignedCorpus.DEFAULT_SHORTLIST_SIZE);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.oscii.concordance;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.oscii.lex.Expression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SuffixArrayAlignedCorpusTest {
+    private static final String CORPUS = "data/europarl-10k/europarl";
+
+    private static IndexedAlignedCorpus words;
+    private static SuffixArrayAlignedCorpus suffixes;
+
+    @BeforeClass
+    public static void read() throws IOException {
+        words = new IndexedAlignedCorpus();
+        suffixes = new SuffixArrayAlignedCorpus();
+        for (AlignedCorpus corpus : Arrays.asList(words, suffixes)) {
+            corpus.read(CORPUS, "en", "es", 2000);
+            corpus.read(CORPUS, "en", "fr", 2000);
+            corpus.tally();
+        }
+    }
+
+    @Test
+    public void testSuffixArray() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 50; trial++) {
+            int[] text = new int[random.nextInt(200)];
+            int alphabet = 1 + random.nextInt(4);
+            for (int i = 0; i < text.length; i++) text[i] = random.nextInt(alphabet);
+            int[] expected = IntStream.range(0, text.length).boxed()
+                    .sorted(suffixOrder(text)).mapToInt(i -> i).toArray();
+            assertArrayEquals(expected, SuffixArrayAlignedCorpus.suffixArray(text, alphabet));
+        }
+    }
+
+    @Test
+    public void testWordsMatchIndexedCorpus() {
+        for (String word : new String[]{"Parliament", "session", "resumed", "unknownword"}) {
+            assertEquals(positions(words.examples(word, "en", "es", 0, 0, false)),
+                    positions(suffixes.examples(word, "en", "es", 0, 0, false)));
+            Function<Expression, Double> expected = words.translationFrequencies(new Expression(word, "en"));
+            Function<Expression, Double> actual = suffixes.translationFrequencies(new Expression(word, "en"));
+            for (String translation : new String[]{"Parlamento", "sesión", "Parlement", "séance"}) {
+                for (String language : new String[]{"es", "fr"}) {
+                    Expression t = new Expression(translation, language);
+                    assertEquals(expected.apply(t), actual.apply(t), 1e-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPhrases() {
+        String phrase = "the European Parliament";
+        List<SentenceExample> examples = suffixes.examples(phrase, "en", "fr", 0, 0, false);
+        long expected = words.sentences.get("en").stream()
+                .filter(s -> s.aligned.language.equals("fr"))
+                .mapToLong(s -> IntStream.range(0, s.tokens.length - 2)
+                        .filter(i -> String.join(" ", Arrays.asList(s.tokens).subList(i, i + 3)).equals(phrase))
+                        .count())
+                .sum();
+        assertTrue(expected > 0);
+        assertEquals(expected, examples.size());
+        for (SentenceExample e : examples) {
+            assertEquals(phrase, String.join(" ", Arrays.asList(e.sentence.tokens).subList(e.sourceStart, e.sourceStart + 3)));
+            assertEquals("fr", e.sentence.aligned.language);
+        }
+        assertEquals(3, suffixes.examples(phrase, "en", "fr", 3, 0, true).size());
+        assertTrue(suffixes.translationFrequencies(new Expression(phrase, "en"))
+                .apply(new Expression("le Parlement européen", "fr")) > 0.0);
+    }
+
+    @Test
+    public void testExtend() throws IOException {
+        SuffixArrayAlignedCorpus full = new SuffixArrayAlignedCorpus();
+        full.read(CORPUS, "en", "es", 600);
+        full.tally();
+        SuffixArrayAlignedCorpus base = new SuffixArrayAlignedCorpus();
+        base.read(CORPUS, "en", "es", 300);
+        base.tally();
+        List<String> before = positions(base.examples("the", "en", "es", 0, 0, false));
+        List<AlignedSentence> pairs = CorpusStoreTest.sentences(full.store(), "en");
+        SuffixArrayAlignedCorpus extended = base.extend(pairs.subList(300, 450)).extend(pairs.subList(450, 600));
+        for (String query : new String[]{"the", "the European Parliament", "session", "unknownword"}) {
+            assertEquals(positions(full.examples(query, "en", "es", 0, 0, false)),
+                    positions(extended.examples(query, "en", "es", 0, 0, false)));
+        }
+        assertEquals(positions(full.examples("sesión", "es", "en", 0, 0, false)),
+                positions(extended.examples("sesión", "es", "en", 0, 0, false)));
+        // The extended corpus is unchanged
+        assertEquals(before, positions(base.examples("the", "en", "es", 0, 0, false)));
+        assertEquals(300, base.store().size("en"));
+    }
+
+    @Test
+    public void testStratifiedSample() {
+        assertArrayEquals(new int[]{0, 1, 2}, AlignedCorpus.stratifiedSample(3, 5, 7));
+        assertArrayEquals(new int[]{0, 1, 2}, AlignedCorpus.stratifiedSample(3, 0, 7));
+        int[] sample = AlignedCorpus.stratifiedSample(1000, 30, 7);
+        assertEquals(30, sample.length);
+        for (int k = 0; k < sample.length; k++) {
+            assertTrue(sample[k] >= k * 1000 / 30 && sample[k] < (k + 1) * 1000 / 30);
+        }
+        assertArrayEquals(sample, AlignedCorpus.stratifiedSample(1000, 30, 7));
+    }
+
+    @Test
+    public void testCandidateBudget() {
+        try {
+            words.setCandidateBudget(50);
+            suffixes.setCandidateBudget(50);
+            List<SentenceExample> examples = suffixes.examples("the", "en", "es", 0, 0, false);
+            assertEquals(50, examples.size());
+            assertEquals(positions(examples), positions(suffixes.examples("the", "en", "es", 0, 0, false)));
+            assertEquals(positions(words.examples("the", "en", "es", 0, 0, false)), positions(examples));
+            // Spread over the corpus
+            int last = suffixes.store().size("en");
+            assertTrue(examples.get(0).sentence.getId() < last / 10);
+            assertTrue(examples.get(49).sentence.getId() > last / 10 * 4);
+        } finally {
+            words.setCandidateBudget(AlignedCorpus.DEFAULT_CANDIDATE_BUDGET);
+            suffixes.setCandidateBudget(AlignedCorpus.DEFAULT_CANDIDATE_BUDGET);
+        }
+    }
+
+    @Test
+    public void testShortlist() {
+        List<SentenceExample> examples = suffixes.examples("session", "en", "es", 0, 0, false);
+        assertTrue(examples.size() > 5);
+        AlignedSentence expected = examples.get(examples.size() / 2).sentence;
+        String context = String.join(" ", expected.tokens);
+        assertEquals(examples, suffixes.shortlist(context, "en", examples));
+        try {
+            words.setShortlistSize(5);
+            suffixes.setShortlistSize(5);
+            List<SentenceExample> shortlist = suffixes.shortlist(context, "en", examples);
+            assertEquals(5, shortlist.size());
+            assertTrue(shortlist.stream().anyMatch(e -> e.sentence.getId() == expected.getId()));
+            // Original order
+            assertTrue(examples.indexOf(shortlist.get(0)) < examples.indexOf(shortlist.get(4)));
+            assertEquals(positions(words.shortlist(context, "en", words.examples("session", "en", "es", 0, 0, false))),
+                    positions(shortlist));
+            // No known words
+            assertEquals(examples, suffixes.shortlist("", "en", examples));
+            assertEquals(examples, suffixes.shortlist("qwertz, asdfgh!", "en", examples));
+        } finally {
+            words.setShortlistSize(AlignedCorpus.DEFAULT_SHORTLIST_SIZE);
+            suffixes.setShortlistSize(AlignedCorpus.DEFAULT_SHORTLIST_SIZE);
+        }
+    }
+
+    private static List<String> positions(List<SentenceExample> examples) {
+        return examples.stream().map(e -> e.sentence.getId() + ":" + e.sourceStart).sorted().collect(Collectors.toList());
+    }
+
+    private static Comparator<Integer> suffixOrder(int[] text) {
+        return (a, b) -> {
+            while (a < text.length && b < text.length) {
+                if (text[a] != text[b]) return Integer.compare(text[a], text[b]);
+                a++;
+                b++;
+            }
+            return Integer.compare(text.length - a, text.length - b);
+        };
+    }
+}
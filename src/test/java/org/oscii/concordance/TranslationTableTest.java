@@ -0,0 +1,65 @@
+package org.oscii.concordance;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TranslationTableTest {
+    @Test
+    public void testFrequency() {
+        List<AlignedSentence> sentences = new ArrayList<>();
+        sentences.addAll(AlignedSentence.parse(tokens("the house"), tokens("la casa"), "0-0 1-1", "en", "es"));
+        sentences.addAll(AlignedSentence.parse(tokens("the car"), tokens("el coche"), "0-0 1-1", "en", "es"));
+        sentences.addAll(AlignedSentence.parse(tokens("the house"), tokens("la maison"), "0-0 1-1", "en", "fr"));
+        // Not one-to-one
+        sentences.addAll(AlignedSentence.parse(tokens("the house"), tokens("la casa"), "0-0 0-1 1-1", "en", "es"));
+        Vocabulary vocabulary = new CorpusStore.Words();
+        sentences.forEach(s -> Arrays.stream(s.tokens).forEach(vocabulary::add));
+        List<String> languages = Arrays.asList("en", "es", "fr");
+        List<AlignedSentence> english = new ArrayList<>();
+        sentences.stream().filter(s -> s.language.equals("en")).forEach(english::add);
+        TranslationTable table = TranslationTable.build(english, vocabulary, languages);
+
+        int the = vocabulary.id("the");
+        assertEquals(0.5, table.frequency(the, "es", vocabulary.id("la")), 1e-12);
+        assertEquals(0.5, table.frequency(the, "es", vocabulary.id("el")), 1e-12);
+        assertEquals(1.0, table.frequency(the, "fr", vocabulary.id("la")), 1e-12);
+        assertEquals(0.0, table.frequency(the, "fr", vocabulary.id("el")), 0.0);
+        assertEquals(0.0, table.frequency(the, "de", vocabulary.id("la")), 0.0);
+        assertEquals(1.0, table.frequency(vocabulary.id("house"), "es", vocabulary.id("casa")), 1e-12);
+        assertTrue(table.contains(vocabulary.id("car")));
+        assertFalse(table.contains(vocabulary.id("casa")));
+        assertFalse(table.contains(CorpusStore.END));
+        assertEquals(6, table.size());
+    }
+
+    @Test
+    public void testStoreMatchesSentences() {
+        CorpusStore store = new CorpusStore();
+        store.add(tokens("the house"), tokens("la casa"), "0-0 1-1", "en", "es");
+        store.add(tokens("the car"), tokens("el coche"), "0-0 1-1", "en", "es");
+        store.add(tokens("the house"), tokens("la casa"), "0-0 0-1 1-1", "en", "es");
+        store.trim();
+        List<String> languages = new ArrayList<>();
+        store.languages().forEach(languages::add);
+        TranslationTable fromStore = TranslationTable.build(store, "es");
+        TranslationTable fromSentences = TranslationTable.build(CorpusStoreTest.sentences(store, "es"), store.vocabulary(), languages);
+        assertEquals(fromSentences.size(), fromStore.size());
+        for (String[] pair : new String[][]{{"la", "the"}, {"el", "the"}, {"casa", "house"}, {"coche", "car"}, {"casa", "the"}}) {
+            int source = store.id(pair[0]), target = store.id(pair[1]);
+            assertEquals(fromSentences.frequency(source, "en", target), fromStore.frequency(source, "en", target), 0.0);
+        }
+        assertEquals(1.0, fromStore.frequency(store.id("la"), "en", store.id("the")), 1e-12);
+        assertEquals(0.5, TranslationTable.build(store, "en").frequency(store.id("the"), "es", store.id("la")), 1e-12);
+    }
+
+    private static String[] tokens(String sentence) {
+        return sentence.split(" ");
+    }
+}
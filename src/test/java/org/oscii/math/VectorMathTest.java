@@ -23,4 +23,16 @@ public class VectorMathTest {
             new FloatVector(v1), new FloatVector(v2));
     assertEquals(0.8918826, sim, 1e-6);
   }
+
+  @Test
+  public void testDotProducts() {
+    float[] a = {1.0f, 2.0f, 3.0f, 0.0f, 1.0f, 0.0f};
+    float[] b = {-1.0f, 3.0f, 10.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 2.0f};
+    float[] c = VectorMath.dotProducts(a, 2, b, 3, 3);
+    assertArrayEquals(new float[]{35.0f, 6.0f, 6.0f, 3.0f, 1.0f, 0.0f}, c, 1e-6f);
+    assertEquals(35.0f, VectorMath.dot(a, 0, b, 0, 3), 1e-6f);
+    float[] v = {3.0f, 4.0f};
+    assertEquals(5.0f, VectorMath.normalize(v, 0, 2), 1e-6f);
+    assertArrayEquals(new float[]{0.6f, 0.8f}, v, 1e-6f);
+  }
 }
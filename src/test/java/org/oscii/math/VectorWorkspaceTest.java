@@ -0,0 +1,46 @@
+package org.oscii.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class VectorWorkspaceTest {
+
+    @Test
+    public void testBuffersAreReused() {
+        VectorWorkspace ws = VectorWorkspace.get();
+        int mark = ws.mark();
+        float[] a = ws.take(3);
+        a[0] = 1f;
+        int inner = ws.mark();
+        float[] b = ws.take(3);
+        assertNotSame(a, b);
+        ws.release(inner);
+        assertSame(b, ws.take(3));
+        ws.release(mark);
+        float[] again = ws.take(3);
+        assertSame(a, again);
+        assertArrayEquals(new float[3], again, 0f);
+        ws.release(mark);
+        assertEquals(2, ws.take(2).length);
+        ws.release(mark);
+    }
+
+    @Test
+    public void testKernels() {
+        float[] v = {3f, 0f, 4f};
+        float[] sum = {1f, 1f, 1f};
+        VectorWorkspace.add(sum, v);
+        assertArrayEquals(new float[]{4f, 1f, 5f}, sum, 0f);
+        VectorWorkspace.add(sum, -2f, v);
+        assertArrayEquals(new float[]{-2f, 1f, -3f}, sum, 0f);
+        VectorWorkspace.scale(sum, 0.5f);
+        assertArrayEquals(new float[]{-1f, 0.5f, -1.5f}, sum, 0f);
+        assertEquals(-9f, VectorWorkspace.dot(sum, v), 0f);
+        assertEquals(5f, VectorWorkspace.normalize(v), 1e-6f);
+        assertArrayEquals(new float[]{0.6f, 0f, 0.8f}, v, 1e-6f);
+    }
+}
@@ -0,0 +1,70 @@
+package org.oscii.neural;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ContextTokenizerTest {
+    private static File binFile = new File("src/test/resources/en.100.vec");
+
+    private static final String[] TEXTS = {
+            "", " ", "  \t", "problem", " problem", "problem ", "such a problem, isn't it?",
+            "¿Qué tal?  — bien.", "\"the\" “such” … problem’s",
+            "𐄀 the 𐐀 such", ". , ;", "a\u000bb\fc\rd\ne", " the such"
+    };
+
+    @Test
+    public void testSplitMatchesRegex() {
+        ContextTokenizer tokenizer = ContextTokenizer.get();
+        for (String text : TEXTS) {
+            assertEquals(text, regexSplit(text).length, tokenizer.split(text).size());
+        }
+    }
+
+    @Test
+    public void testRowsMatchMeans() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(binFile);
+        List<String> words = model.vocab();
+        Random random = new Random(7);
+        List<String> texts = new ArrayList<>(Arrays.asList(TEXTS));
+        String[] separators = {" ", "  ", ", ", " - ", "\t", ". "};
+        for (int t = 0; t < 200; t++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(60);
+            if (random.nextBoolean()) text.append(' ');
+            for (int i = 0; i < length; i++) {
+                // Repeat words often and include some unknown ones
+                text.append(random.nextInt(10) == 0 ? "unknown" + random.nextInt(3) : words.get(random.nextInt(Math.min(words.size(), 40))));
+                text.append(separators[random.nextInt(separators.length)]);
+            }
+            texts.add(text.toString());
+        }
+        ContextTokenizer tokenizer = ContextTokenizer.get();
+        float[] mean = new float[model.dimension()];
+        for (String text : texts) {
+            String[] tokens = regexSplit(text);
+            float[] expected = ((FloatVector) model.getMean(Word2VecManager.reduceTokens(tokens, 25, 5, 10))).getData();
+            int n = tokenizer.split(text).reduce(model, 25, 5, 10);
+            assertArrayEquals(text, expected, model.mean(tokenizer.rows(), n, mean), 1e-6f);
+
+            n = tokenizer.tokens(tokens).reduce(model, 25, 5, 10);
+            assertArrayEquals(text, expected, model.mean(tokenizer.rows(), n, mean), 1e-6f);
+
+            expected = ((FloatVector) model.getMean(Word2VecManager.getBagOfWords(tokens))).getData();
+            n = tokenizer.split(text).bagOfWords(model);
+            assertArrayEquals(text, expected, model.mean(tokenizer.rows(), n, mean), 1e-6f);
+        }
+    }
+
+    private static String[] regexSplit(String text) {
+        return text.replaceAll("\\p{P}", "").split("\\s+");
+    }
+}
@@ -2,11 +2,20 @@ package org.oscii.neural;
 
 import no.uib.cipr.matrix.Vector;
 import org.junit.Test;
+import org.oscii.math.VectorMath;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -33,6 +42,38 @@ public class EmbeddingContainerTest {
         EmbeddingContainer model = EmbeddingContainer.fromTextFile(txtFilename);
         assertEquals(5, model.dimension());
         assertEquals(85, model.vocabSize());
+        List<String> lines = Files.readAllLines(Paths.get(txtFilename), StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.trim().split(" ");
+            float[] expected = new float[values.length - 1];
+            for (int d = 0; d < expected.length; d++) {
+                expected[d] = Float.parseFloat(values[d + 1]);
+            }
+            assertTrue(Arrays.equals(expected, ((FloatVector) model.getRawVector(values[0])).getData()));
+        }
+    }
+
+    @Test
+    public void testTextToBinFile() throws IOException {
+        File text = File.createTempFile("glove", ".txt");
+        text.deleteOnExit();
+        // No header, as in GloVe; values that need the slow path of the float parser
+        Files.write(text.toPath(), Arrays.asList("año 1.5 -2.0e-3\r", "", "straße 0.123456789 1E40", "été -0 3"),
+                StandardCharsets.UTF_8);
+        EmbeddingContainer model = EmbeddingContainer.fromTextFile(text.getPath());
+        assertEquals(Arrays.asList("año", "straße", "été"), model.vocab());
+        assertTrue(Arrays.equals(new float[]{1.5f, -2.0e-3f}, ((FloatVector) model.getRawVector("año")).getData()));
+        assertTrue(Arrays.equals(new float[]{0.123456789f, Float.POSITIVE_INFINITY},
+                ((FloatVector) model.getRawVector("straße")).getData()));
+        File bin = File.createTempFile("glove", ".bin");
+        bin.deleteOnExit();
+        model.toBinFile(bin);
+        EmbeddingContainer read = EmbeddingContainer.fromBinFile(bin);
+        assertEquals(model.vocab(), read.vocab());
+        for (String word : model.vocab()) {
+            assertTrue(Arrays.equals(((FloatVector) model.getRawVector(word)).getData(),
+                    ((FloatVector) read.getRawVector(word)).getData()));
+        }
     }
 
     @Test
@@ -42,6 +83,27 @@ public class EmbeddingContainerTest {
         assertEquals(85, model.vocabSize());
     }
 
+    @Test
+    public void testFromBinFileUtf8() throws IOException {
+        String[] words = {"año", "straße", "été"};
+        File file = File.createTempFile("utf8", ".vec");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("3 2\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < words.length; i++) {
+                out.write((words[i] + " ").getBytes(StandardCharsets.UTF_8));
+                out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putFloat(i).putFloat(-i).array());
+                out.write('\n');
+            }
+        }
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(file);
+        assertEquals(Arrays.asList(words), model.vocab());
+        assertTrue(Arrays.equals(new float[]{1f, -1f}, ((FloatVector) model.getRawVector("straße")).getData()));
+        EmbeddingContainer restricted = EmbeddingContainer.fromBinFile(file, Collections.singleton("été"));
+        assertEquals(1, restricted.vocabSize());
+        assertTrue(Arrays.equals(new float[]{2f, -2f}, ((FloatVector) restricted.getRawVector("été")).getData()));
+    }
+
     @Test
     public void testGetRawVector() throws IOException {
         EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
@@ -80,4 +142,70 @@ public class EmbeddingContainerTest {
         List<String> nearThree = model.neighbors(new FloatVector(three), 5);
         assertEquals(Arrays.asList(new String[]{"three", "one", "two", "five", "six"}), nearThree);
     }
+
+    @Test
+    public void testScalarQuantization() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
+        EmbeddingContainer quantized = model.withStorage(EmbeddingContainer.Storage.INT8);
+        assertEquals(model.vocabSize(), quantized.vocabSize());
+        // 5 dimensions: 13 bytes per row including the norm, against 28 for floats
+        assertTrue(quantized.sizeInBytes() * 2 < model.sizeInBytes());
+        float[] exact = ((FloatVector) model.getRawVector(WORD_1)).getData();
+        float[] approx = ((FloatVector) quantized.getRawVector(WORD_1)).getData();
+        for (int i = 0; i < exact.length; i++) {
+            assertEquals(exact[i], approx[i], 0.01);
+        }
+        String[] query = {WORD_1, WORD_2};
+        assertEquals(1.0, VectorMath.cosineSimilarity(model.getMean(query), quantized.getMean(query)), 1e-3);
+    }
+
+    @Test
+    public void testHalfPrecision() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
+        EmbeddingContainer half = model.withStorage(EmbeddingContainer.Storage.FP16);
+        // 5 dimensions: 18 bytes per row including the norm, against 28 for floats
+        assertTrue(half.sizeInBytes() * 3 < model.sizeInBytes() * 2);
+        float[] exact = ((FloatVector) model.getRawVector(WORD_1)).getData();
+        float[] approx = ((FloatVector) half.getRawVector(WORD_1)).getData();
+        for (int i = 0; i < exact.length; i++) {
+            assertEquals(exact[i], approx[i], Math.abs(exact[i]) * 0x1p-11);
+        }
+        assertEquals(model.neighbors(WORD_1, 5), half.neighbors(WORD_1, 5));
+
+        File full = File.createTempFile("full", ".bin");
+        full.deleteOnExit();
+        model.toBinFile(full);
+        File bin = File.createTempFile("half", ".bin");
+        bin.deleteOnExit();
+        model.toBinFile(bin, EmbeddingContainer.Storage.FP16);
+        // Two bytes less per value, five more for " fp16" in the header
+        assertEquals(full.length() - 2 * model.dimension() * model.vocabSize() + 5, bin.length());
+        EmbeddingContainer read = EmbeddingContainer.fromBinFile(bin);
+        assertTrue(read.withStorage(EmbeddingContainer.Storage.FP16) == read);
+        for (String word : model.vocab()) {
+            assertTrue(Arrays.equals(((FloatVector) half.getRawVector(word)).getData(),
+                    ((FloatVector) read.getRawVector(word)).getData()));
+        }
+    }
+
+    @Test
+    public void testProductQuantization() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
+        EmbeddingContainer quantized = model.withStorage(EmbeddingContainer.Storage.PQ);
+        // With fewer words than centroids, every word is its own centroid
+        assertTrue(Arrays.equals(((FloatVector) model.getRawVector(WORD_2)).getData(),
+                ((FloatVector) quantized.getRawVector(WORD_2)).getData()));
+        assertEquals(model.neighbors(WORD_1, 5), quantized.neighbors(WORD_1, 5));
+    }
+
+    @Test
+    public void testNearest() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
+        List<Neighbor> nearest = model.nearest(model.getRawVector(WORD_1), 4, Arrays.asList(WORD_1));
+        assertEquals(model.neighbors(WORD_1, 5).subList(1, 5),
+                nearest.stream().map(n -> n.word).collect(Collectors.toList()));
+        for (int i = 1; i < nearest.size(); i++) {
+            assertTrue(nearest.get(i - 1).similarity >= nearest.get(i).similarity);
+        }
+    }
 }
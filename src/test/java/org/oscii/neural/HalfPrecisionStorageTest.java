@@ -0,0 +1,45 @@
+package org.oscii.neural;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HalfPrecisionStorageTest {
+
+    @Test
+    public void testRoundTrip() {
+        for (int h = 0; h < 1 << 16; h++) {
+            float x = HalfPrecisionStorage.toFloat((short) h);
+            if (Float.isNaN(x)) {
+                assertTrue(Float.isNaN(HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(x))));
+            } else {
+                assertEquals(h, HalfPrecisionStorage.toHalf(x) & 0xFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundsToNearest() {
+        assertEquals(1f, HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(1f + 0x1p-11f)), 0f); // tie to even
+        assertEquals(1f + 0x1p-9f, HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(1f + 0x1p-10f + 0x1p-11f)), 0f);
+        assertEquals(65504f, HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(65519f)), 0f);
+        assertEquals(Float.POSITIVE_INFINITY, HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(65520f)), 0f);
+        assertEquals(0x1p-24f, HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(0x1.8p-25f)), 0f);
+        assertEquals(0f, HalfPrecisionStorage.toFloat(HalfPrecisionStorage.toHalf(0x1p-25f)), 0f);
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            float x = (float) random.nextGaussian() * (random.nextBoolean() ? 1f : 1e-5f);
+            short h = HalfPrecisionStorage.toHalf(x);
+            float rounded = HalfPrecisionStorage.toFloat(h);
+            // No neighboring half is nearer; the neighbors of zeros are NaN
+            float below = HalfPrecisionStorage.toFloat((short) (h - 1));
+            float above = HalfPrecisionStorage.toFloat((short) (h + 1));
+            assertFalse(Math.abs(x - below) < Math.abs(x - rounded));
+            assertFalse(Math.abs(x - above) < Math.abs(x - rounded));
+        }
+    }
+}
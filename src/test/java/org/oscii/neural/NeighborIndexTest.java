@@ -0,0 +1,47 @@
+package org.oscii.neural;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NeighborIndexTest {
+    private static String binFilename = "src/test/resources/en.100.vec";
+
+    @Test
+    public void testSearchIsExact() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
+        NeighborIndex index = NeighborIndex.build(model);
+        assertEquals(model.vocabSize(), index.size());
+        for (int row = 0; row < model.vocabSize(); row++) {
+            IntToDoubleFunction distance = model.angularDistances(row);
+            int[] expected = IntStream.range(0, model.vocabSize()).boxed()
+                    .sorted(Comparator.<Integer>comparingDouble(distance::applyAsDouble)
+                            .thenComparingInt(i -> i))
+                    .limit(10).mapToInt(i -> i).toArray();
+            int[] found = index.search(model, model.getRawVector(model.vocab().get(row)), 10);
+            assertArrayEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(new File(binFilename));
+        NeighborIndex index = NeighborIndex.build(model);
+        File file = File.createTempFile("en.100", NeighborIndex.SUFFIX);
+        file.deleteOnExit();
+        index.write(file);
+        NeighborIndex read = NeighborIndex.read(file, model.vocabSize());
+        for (String word : Arrays.asList("problem", "such", "the")) {
+            assertArrayEquals(index.search(model, model.getRawVector(word), 5),
+                    read.search(model, model.getRawVector(word), 5));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.oscii.neural;
+
+import org.junit.Test;
+import org.oscii.math.VectorMath;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrincipalComponentsTest {
+    private static File binFile = new File("src/test/resources/en.100.vec");
+
+    @Test
+    public void testFullRotationPreservesSimilarities() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(binFile);
+        PrincipalComponents pca = PrincipalComponents.fit(model, 1000, false);
+        assertEquals(1.0, pca.retained(model.dimension()), 1e-9);
+        EmbeddingContainer rotated = pca.project(model, model.dimension());
+        for (String w : new String[]{"problem", "such", "the"}) {
+            for (String v : new String[]{"problem", "such", "the"}) {
+                assertEquals(VectorMath.cosineSimilarity(model.getRawVector(w), model.getRawVector(v)),
+                        VectorMath.cosineSimilarity(rotated.getRawVector(w), rotated.getRawVector(v)), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testReduce() throws IOException {
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(binFile);
+        PrincipalComponents pca = PrincipalComponents.fit(model, 1000, true);
+        EmbeddingContainer reduced = pca.project(model, 2);
+        assertEquals(2, reduced.dimension());
+        assertEquals(model.vocab(), reduced.vocab());
+        assertTrue(pca.retained(1) <= pca.retained(2));
+        assertTrue(pca.retained(2) < 1.0);
+    }
+}
@@ -0,0 +1,39 @@
+package org.oscii.neural;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class VocabularyIndexTest {
+
+    @Test
+    public void testRow() {
+        String[] vocab = new String[1000];
+        for (int i = 0; i < vocab.length; i++) {
+            vocab[i] = "w" + i;
+        }
+        VocabularyIndex index = new VocabularyIndex(vocab);
+        for (int i = 0; i < vocab.length; i++) {
+            assertEquals(i, index.row("w" + i));
+        }
+        assertEquals(-1, index.row("w1000"));
+        assertEquals(-1, index.row(""));
+    }
+
+    @Test
+    public void testRepeatedWord() {
+        VocabularyIndex index = new VocabularyIndex(new String[]{"a", "b", "a"});
+        assertEquals(2, index.row("a"));
+        assertEquals(1, index.row("b"));
+    }
+
+    @Test
+    public void testCharRange() {
+        VocabularyIndex index = new VocabularyIndex(new String[]{"the", "año", "cat"});
+        String text = "el año del cat";
+        assertEquals(1, index.row(text, 3, 6));
+        assertEquals(2, index.row(text, 11, 14));
+        assertEquals(-1, index.row(text, 0, 2));
+        assertEquals(-1, index.row(text, 11, 13));
+    }
+}
@@ -0,0 +1,184 @@
+package org.oscii.neural;
+
+import org.junit.Test;
+import org.oscii.concordance.AlignedSentence;
+import org.oscii.concordance.SentenceExample;
+import org.oscii.concordance.SuffixArrayAlignedCorpus;
+import org.oscii.math.VectorMath;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Word2VecManagerTest {
+    private static File binFile = new File("src/test/resources/en.100.vec");
+
+    @Test
+    public void testLoadsOnFirstUse() throws IOException {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        assertTrue(manager.supports("en"));
+        assertEquals(0, manager.statistics().get("embeddingModelsResident").intValue());
+        assertTrue(manager.containsQuery("en", "problem"));
+        assertTrue(manager.containsQuery("en", "such"));
+        Map<String, Number> stats = manager.statistics();
+        assertEquals(1, stats.get("embeddingModelsResident").intValue());
+        assertEquals(1L, stats.get("embeddingLoads"));
+    }
+
+    @Test
+    public void testEvictsOverBudget() throws IOException {
+        long size = EmbeddingContainer.fromBinFile(binFile).sizeInBytes();
+        Word2VecManager manager = new Word2VecManager(size + (size >> 1) + 2048);
+        manager.add("en", binFile);
+        manager.add("xx", binFile);
+        assertTrue(manager.containsQuery("en", "problem"));
+        assertTrue(manager.containsQuery("xx", "problem"));
+        assertTrue(manager.containsQuery("en", "problem"));
+        Map<String, Number> stats = manager.statistics();
+        assertEquals(1, stats.get("embeddingModelsResident").intValue());
+        assertEquals(3L, stats.get("embeddingLoads"));
+        assertEquals(2L, stats.get("embeddingEvictions"));
+    }
+
+    @Test
+    public void testSimilarities() throws Exception {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        List<String> queries = Arrays.asList("problem", "The", "unknownword");
+        List<String> candidates = Arrays.asList("such", "problem", "unknownword", "the");
+        double[][] matrix = manager.getSimilarityMatrix("en", queries, candidates);
+        for (int i = 0; i < queries.size(); i++) {
+            for (int j = 0; j < candidates.size(); j++) {
+                assertEquals(manager.getSimilarity("en", queries.get(i) + "|||" + candidates.get(j), ""), matrix[i][j], 1e-5);
+            }
+        }
+        assertArrayEquals(matrix[0], manager.getSimilarities("en", "problem", candidates), 0.0);
+    }
+
+    @Test
+    public void testCachesContexts() throws IOException {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        List<SentenceExample> first = examples();
+        List<SentenceExample> second = examples();
+        assertTrue(manager.rankConcordances("en", "such a problem", first, 0));
+        // Differs only in punctuation and whitespace
+        assertTrue(manager.rankConcordances("en", "such,  a problem!", second, 0));
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).similarity, second.get(i).similarity, 0.0);
+        }
+        Map<String, Number> stats = manager.statistics();
+        assertEquals(1L, stats.get("contextCacheHits"));
+        assertEquals(1L, stats.get("contextCacheMisses"));
+        manager.add("en", binFile);
+        assertEquals(0L, manager.statistics().get("contextCacheSize"));
+    }
+
+    @Test
+    public void testEmbedsRankedSentences() throws IOException {
+        SuffixArrayAlignedCorpus corpus = new SuffixArrayAlignedCorpus();
+        corpus.read("data/europarl-10k/europarl", "en", "es", 500);
+        corpus.tally();
+        Word2VecManager indexed = new Word2VecManager();
+        indexed.add("en", binFile);
+        indexed.setCacheSentences(true);
+        Word2VecManager plain = new Word2VecManager();
+        plain.add("en", binFile);
+        assertEquals(0, indexed.statistics().get("embeddedSentences").intValue());
+
+        List<SentenceExample> examples = corpus.examples("problem", "en", "es", 20, 0, true);
+        List<SentenceExample> expected = corpus.examples("problem", "en", "es", 20, 0, true);
+        assertTrue(indexed.rankConcordances("en", "such a problem", examples, 0));
+        assertTrue(plain.rankConcordances("en", "such a problem", expected, 0));
+        for (int i = 0; i < examples.size(); i++) {
+            assertEquals(expected.get(i).similarity, examples.get(i).similarity, 1e-5);
+        }
+        long embedded = examples.stream().map(ex -> ex.sentence.getId()).distinct().count();
+        assertEquals(embedded, indexed.statistics().get("embeddedSentences").longValue());
+        // Replacing the model drops its sentence embeddings
+        indexed.add("en", binFile);
+        assertEquals(0, indexed.statistics().get("embeddedSentences").intValue());
+    }
+
+    private static List<SentenceExample> examples() {
+        String[][] sentences = {{"the", "problem"}, {"such", "a", "thing"}, {"unknownword"}};
+        List<SentenceExample> examples = new ArrayList<>();
+        for (String[] tokens : sentences) {
+            AlignedSentence s = AlignedSentence.parse(tokens, tokens, new String[]{"0-0"}, "en", "xx").get(0);
+            examples.add(SentenceExample.create(s, 0, 1, 0));
+        }
+        return examples;
+    }
+
+    @Test
+    public void testAnalogy() throws Exception {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        manager.setArithmeticVisits(Integer.MAX_VALUE);
+        List<Neighbor> found = manager.analogy("en", "problem", "such", "The", 5);
+        assertEquals(5, found.size());
+        // Brute force over a - b + c with unit vectors
+        EmbeddingContainer model = EmbeddingContainer.fromBinFile(binFile);
+        float[] sum = new float[model.dimension()];
+        String[] words = {"problem", "such", "the"};
+        float[] signs = {1f, -1f, 1f};
+        for (int w = 0; w < words.length; w++) {
+            float[] v = ((FloatVector) model.getRawVector(words[w])).getData().clone();
+            VectorMath.normalize(v, 0, v.length);
+            for (int i = 0; i < sum.length; i++) sum[i] += signs[w] * v[i];
+        }
+        FloatVector query = new FloatVector(sum, false);
+        List<String> expected = model.vocab().stream()
+                .filter(w -> !Arrays.asList(words).contains(w))
+                .sorted(Comparator.comparingDouble(w -> -VectorMath.cosineSimilarity(query, model.getRawVector(w))))
+                .limit(5).collect(Collectors.toList());
+        assertEquals(expected, found.stream().map(n -> n.word).collect(Collectors.toList()));
+    }
+
+    @Test(expected = Word2VecManager.UnknownWordException.class)
+    public void testAnalogyUnknownWord() throws Exception {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        manager.analogy("en", "problem", "such", "unknownword", 5);
+    }
+
+    @Test
+    public void testNeighborsDegradeUnknownWords() throws Exception {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        List<String> expected = words(manager.neighbors("en", "such the", 5));
+        assertEquals(5, expected.size());
+        assertEquals(expected, words(manager.neighbors("en", "such The unknownword", 5)));
+        List<List<Neighbor>> found = manager.neighbors("en", Arrays.asList("The such", "unknownword"), 5);
+        assertEquals(expected, words(found.get(0)));
+        assertNull(found.get(1));
+    }
+
+    private static List<String> words(List<Neighbor> neighbors) {
+        return neighbors.stream().map(n -> n.word).collect(Collectors.toList());
+    }
+
+    @Test(expected = Word2VecManager.UnknownWordException.class)
+    public void testNeighborsUnknownWords() throws Exception {
+        Word2VecManager manager = new Word2VecManager();
+        manager.add("en", binFile);
+        manager.neighbors("en", "unknownword", 5);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingFile() throws IOException {
+        new Word2VecManager().add("en", new File("src/test/resources/missing.vec"));
+    }
+}